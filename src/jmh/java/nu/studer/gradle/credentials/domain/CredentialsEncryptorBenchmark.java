@@ -0,0 +1,82 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encryption and decryption of single credentials values of different sizes, with the secret key already derived, both in the legacy format of {@link Encryption}
+ * (AES/CBC, PBKDF2WithHmacSHA1) and in the current format of {@link AuthenticatedEncryption} (AES/GCM, PBKDF2WithHmacSHA256). The concurrent benchmarks share a single
+ * encryptor across threads, like the projects of a parallel build share the encryptor of the build service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CredentialsEncryptorBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int valueSize;
+
+    @Param({"legacy", "current"})
+    public String format;
+
+    private Encryption legacyEncryption;
+    private CredentialsEncryptor credentialsEncryptor;
+    private String value;
+    private String encryptedValue;
+
+    @Setup
+    public void setup() {
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'x');
+        char[] passphrase = ">>Default passphrase to encrypt passwords!<<".toCharArray();
+        legacyEncryption = format.equals("legacy") ? Encryption.createEncryption(passphrase) : null;
+        credentialsEncryptor = CredentialsEncryptor.withPassphrase(passphrase);
+        value = new String(chars);
+
+        // the credentials encryptor decrypts values of both formats, it only encrypts in the current format
+        encryptedValue = legacyEncryption != null ? legacyEncryption.encrypt(value) : credentialsEncryptor.encrypt(value);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return legacyEncryption != null ? legacyEncryption.encrypt(value) : credentialsEncryptor.encrypt(value);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return credentialsEncryptor.decrypt(encryptedValue);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String decryptConcurrently() {
+        return credentialsEncryptor.decrypt(encryptedValue);
+    }
+
+    @Benchmark
+    @Group("encryptAndDecryptConcurrently")
+    @GroupThreads(2)
+    public String encryptConcurrently() {
+        return encrypt();
+    }
+
+    @Benchmark
+    @Group("encryptAndDecryptConcurrently")
+    @GroupThreads(2)
+    public String decryptWhileEncrypting() {
+        return credentialsEncryptor.decrypt(encryptedValue);
+    }
+
+}
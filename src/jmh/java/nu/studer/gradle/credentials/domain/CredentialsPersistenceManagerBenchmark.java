@@ -0,0 +1,78 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.java.util.OrderedProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures reading and writing credentials files of different sizes and formats. The values have the length of typical encrypted credentials.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CredentialsPersistenceManagerBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int entries;
+
+    @Param({"PROPERTIES", "BINARY"})
+    public CredentialsFormat format;
+
+    private File tempDir;
+    private CredentialsPersistenceManager readManager;
+    private CredentialsPersistenceManager writeManager;
+    private OrderedProperties credentials;
+    private String key;
+
+    @Setup
+    public void setup() throws IOException {
+        credentials = new OrderedProperties();
+        for (int i = 0; i < entries; i++) {
+            credentials.setProperty("someKey" + i, "vO4ayNu9yU0KCvsV6AQJLw==" + i);
+        }
+        key = "someKey" + (entries / 2);
+
+        tempDir = Files.createTempDirectory("credentials-benchmark").toFile();
+        readManager = new CredentialsPersistenceManager(new File(tempDir, "read.encrypted.properties"));
+        readManager.storeCredentials(credentials, format);
+        writeManager = new CredentialsPersistenceManager(new File(tempDir, "write.encrypted.properties"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public OrderedProperties readCredentials() {
+        return readManager.readCredentials();
+    }
+
+    @Benchmark
+    public String readSingleCredentials() {
+        return readManager.readSnapshot().get(key);
+    }
+
+    @Benchmark
+    public void storeCredentials() {
+        writeManager.storeCredentials(credentials, format);
+    }
+
+}
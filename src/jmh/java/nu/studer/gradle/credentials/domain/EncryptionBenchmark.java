@@ -0,0 +1,34 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the derivation of the secret key from a passphrase, which happens once per passphrase and build, both for the legacy format (PBKDF2WithHmacSHA1 with a fixed salt)
+ * and for the current format (PBKDF2WithHmacSHA256 with a random salt and the default iteration count).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncryptionBenchmark {
+
+    private final char[] passphrase = ">>Default passphrase to encrypt passwords!<<".toCharArray();
+    private final KeyDerivation keyDerivation = KeyDerivation.create(KeyDerivation.DEFAULT_ITERATIONS);
+
+    @Benchmark
+    public Encryption createEncryption() {
+        return Encryption.createEncryption(passphrase);
+    }
+
+    @Benchmark
+    public byte[] deriveKey() {
+        return keyDerivation.deriveKey(passphrase);
+    }
+
+}
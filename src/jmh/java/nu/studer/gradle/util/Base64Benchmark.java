@@ -0,0 +1,60 @@
+package nu.studer.gradle.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Base64 encoding and decoding of byte arrays of different sizes, both into newly allocated and into caller-supplied buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Base64Benchmark {
+
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    private byte[] bytes;
+    private String encoded;
+    private char[] charBuffer;
+    private byte[] byteBuffer;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        encoded = Base64.encodeBase64(bytes);
+        charBuffer = new char[Base64.encodedLength(size)];
+        byteBuffer = new byte[size];
+    }
+
+    @Benchmark
+    public String encodeBase64() {
+        return Base64.encodeBase64(bytes);
+    }
+
+    @Benchmark
+    public byte[] decodeBase64() {
+        return Base64.decodeBase64(encoded);
+    }
+
+    @Benchmark
+    public int encodeBase64IntoBuffer() {
+        return Base64.encodeBase64(bytes, 0, bytes.length, charBuffer, 0);
+    }
+
+    @Benchmark
+    public int decodeBase64IntoBuffer() {
+        return Base64.decodeBase64(encoded, 0, encoded.length(), byteBuffer, 0);
+    }
+
+}
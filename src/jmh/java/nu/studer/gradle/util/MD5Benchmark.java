@@ -0,0 +1,27 @@
+package nu.studer.gradle.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hashing of a passphrase into the name of its credentials file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MD5Benchmark {
+
+    private final String passphrase = "mySecretPassPhrase";
+
+    @Benchmark
+    public String generateMD5Hash() {
+        return MD5.generateMD5Hash(passphrase);
+    }
+
+}
@@ -1,39 +1,32 @@
 package nu.studer.gradle.credentials;
 
-import nu.studer.gradle.credentials.domain.CredentialsEncryptor;
-import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
 import nu.studer.gradle.util.AlwaysFalseSpec;
-import nu.studer.java.util.OrderedProperties;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.options.Option;
 import org.gradle.work.DisableCachingByDefault;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
 import java.io.File;
-import java.util.Arrays;
 
 /**
- * Adds/updates the given credentials, specified as project properties.
+ * Adds/updates the given credentials, specified as project properties or task options. Any number of credentials can be added at once from a properties file, in which case all
+ * credentials are encrypted in parallel and stored in a single update of the credentials file. The credentials file is not written if all given credentials already have the given
+ * values.
+ * <p>
+ * The credentials are encrypted and stored by {@link AddCredentialsWorkAction} through the worker API.
  */
 @DisableCachingByDefault
-public class AddCredentialsTask extends DefaultTask {
+public abstract class AddCredentialsTask extends DefaultTask {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(AddCredentialsTask.class);
-
-    private final CredentialsEncryptor credentialsEncryptor;
-    private final CredentialsPersistenceManager credentialsPersistenceManager;
-    private String key;
-    private String value;
-
-    @Inject
-    public AddCredentialsTask(CredentialsEncryptor credentialsEncryptor, CredentialsPersistenceManager credentialsPersistenceManager) {
-        this.credentialsEncryptor = credentialsEncryptor;
-        this.credentialsPersistenceManager = credentialsPersistenceManager;
+    public AddCredentialsTask() {
         setDescription("Adds the credentials specified through the project properties 'credentialsKey' and 'credentialsValue'.");
         setGroup(CredentialsPlugin.GROUP);
         getOutputs().upToDateWhen(AlwaysFalseSpec.INSTANCE);
@@ -41,59 +34,75 @@ public class AddCredentialsTask extends DefaultTask {
 
     @Option(option = "key", description = "The credentials key.")
     public void setKey(String key) {
-        this.key = key;
+        getCredentialsKey().set(key);
     }
 
     @Option(option = "value", description = "The credentials value.")
     public void setValue(String value) {
-        this.value = value;
+        getCredentialsValue().set(value);
     }
 
-    @Internal("Do not annotate as @Input to avoid the key being stored in the task artifact cache")
-    public String getCredentialsKey() {
-        return key != null ? key : getProjectProperty(CredentialsPlugin.CREDENTIALS_KEY_PROPERTY);
+    @Option(option = "from-file", description = "The properties file with the credentials keys and values to add.")
+    public void setFromFile(String path) {
+        getCredentialsSourceFile().set(getProject().file(path));
     }
 
+    @Internal("Do not annotate as @Input to avoid the key being stored in the task artifact cache")
+    public abstract Property<String> getCredentialsKey();
+
     @Internal("Do not annotate as @Input to avoid the value being stored in the task artifact cache")
-    public String getCredentialsValue() {
-        return value != null ? value : getProjectProperty(CredentialsPlugin.CREDENTIALS_VALUE_PROPERTY);
-    }
+    public abstract Property<String> getCredentialsValue();
 
-    @OutputFile
-    public File getEncryptedPropertiesFile() {
-        return credentialsPersistenceManager.getCredentialsFile();
-    }
+    @Internal("Do not annotate as @Input to avoid the passphrase being stored in the task artifact cache")
+    public abstract Property<String> getPassphrase();
 
-    @TaskAction
-    void addCredentials() {
-        // get credentials key and value from the command line or project properties
-        String key = getCredentialsKey();
-        if (key == null) {
-            throw new IllegalArgumentException("Credentials key must not be null");
-        }
+    @Internal("Do not annotate as @InputFile to avoid the values being fingerprinted in the task history")
+    public abstract RegularFileProperty getCredentialsSourceFile();
 
-        String value = getCredentialsValue();
-        if (value == null) {
-            throw new IllegalArgumentException("Credentials value must not be null");
-        }
+    @Internal
+    public abstract Property<CredentialsBuildService> getCredentialsBuildService();
 
-        char[] placeholderValue = new char[value.length()];
-        Arrays.fill(placeholderValue, '*');
-        LOGGER.debug(String.format("Add credentials with key: '%s', value: '%s'", key, new String(placeholderValue)));
+    @Input
+    @Optional
+    public abstract Property<Long> getJournalThreshold();
 
-        // read the current persisted credentials
-        OrderedProperties credentials = credentialsPersistenceManager.readCredentials();
+    @OutputFile
+    public abstract RegularFileProperty getEncryptedPropertiesFile();
 
-        // encrypt value and update credentials
-        String encryptedValue = credentialsEncryptor.encrypt(value);
-        credentials.setProperty(key, encryptedValue);
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
 
-        // persist the updated credentials
-        credentialsPersistenceManager.storeCredentials(credentials);
-    }
+    @TaskAction
+    void addCredentials() {
+        // validate the credentials to add, where the credentials key and value are optional if a properties file is given
+        if (getCredentialsSourceFile().isPresent()) {
+            File sourceFile = getCredentialsSourceFile().get().getAsFile();
+            if (!sourceFile.isFile()) {
+                throw new IllegalArgumentException("File with the credentials to add does not exist: " + sourceFile.getAbsolutePath());
+            }
+        }
+        String key = getCredentialsKey().getOrNull();
+        if (key != null || !getCredentialsSourceFile().isPresent()) {
+            if (key == null) {
+                throw new IllegalArgumentException("Credentials key must not be null");
+            }
+            if (!getCredentialsValue().isPresent()) {
+                throw new IllegalArgumentException("Credentials value must not be null");
+            }
+        }
 
-    private String getProjectProperty(String key) {
-        return (String) getProject().getProperties().get(key);
+        // resolve the passphrase through the build service, such that the work action can look up the credentials encryptor by the credentials file alone
+        getCredentialsBuildService().get().getEncryptor(getPassphrase().get());
+
+        // encrypt and store the credentials in a work action, which Gradle waits for once the task action has returned
+        getWorkerExecutor().noIsolation().submit(AddCredentialsWorkAction.class, parameters -> {
+            parameters.getCredentialsKey().set(getCredentialsKey());
+            parameters.getCredentialsValue().set(getCredentialsValue());
+            parameters.getCredentialsSourceFile().set(getCredentialsSourceFile());
+            parameters.getJournalThreshold().set(getJournalThreshold());
+            parameters.getEncryptedPropertiesFile().set(getEncryptedPropertiesFile());
+            parameters.getCredentialsBuildService().set(getCredentialsBuildService());
+        });
     }
 
 }
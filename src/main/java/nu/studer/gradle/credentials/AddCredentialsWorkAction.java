@@ -0,0 +1,87 @@
+package nu.studer.gradle.credentials;
+
+import nu.studer.gradle.credentials.domain.CredentialsEncryptor;
+import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
+import nu.studer.java.util.OrderedProperties;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encrypts the credentials submitted by {@link AddCredentialsTask} and stores them in the credentials file. The credentials value is only encrypted here, such that no secret key
+ * is derived while configuring the build. The parameters never hold the passphrase, the credentials encryptor is looked up by the credentials file instead.
+ */
+public abstract class AddCredentialsWorkAction implements WorkAction<AddCredentialsWorkAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+
+        Property<String> getCredentialsKey();
+
+        Property<String> getCredentialsValue();
+
+        RegularFileProperty getCredentialsSourceFile();
+
+        Property<Long> getJournalThreshold();
+
+        RegularFileProperty getEncryptedPropertiesFile();
+
+        Property<CredentialsBuildService> getCredentialsBuildService();
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AddCredentialsWorkAction.class);
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        File credentialsFile = parameters.getEncryptedPropertiesFile().get().getAsFile();
+
+        // encrypt with the same secret key as the existing credentials, such that the secret key needs to be derived only once when reading the credentials, where the
+        // passphrase has already been resolved by the task
+        CredentialsEncryptor credentialsEncryptor = parameters.getCredentialsBuildService().get().getEncryptor(new CredentialsPersistenceManager(credentialsFile));
+        Map<String, String> changes = new LinkedHashMap<>();
+
+        // get credentials keys and values from the given plain properties file, and encrypt them in parallel
+        if (parameters.getCredentialsSourceFile().isPresent()) {
+            File sourceFile = parameters.getCredentialsSourceFile().get().getAsFile();
+            OrderedProperties sourceCredentials = loadProperties(sourceFile);
+            LOGGER.debug(String.format("Add %d credentials from file: '%s'", sourceCredentials.size(), sourceFile.getAbsolutePath()));
+            changes.putAll(credentialsEncryptor.encryptAll(sourceCredentials));
+        }
+
+        // get credentials key and value from the command line or project properties
+        if (parameters.getCredentialsKey().isPresent()) {
+            String key = parameters.getCredentialsKey().get();
+            LOGGER.debug(String.format("Add credentials with key: '%s'", key));
+            changes.put(key, credentialsEncryptor.encrypt(parameters.getCredentialsValue().get()));
+        }
+
+        // update the persisted credentials with the encrypted values, without any concurrent update interfering, and without writing the file if all values are unchanged
+        CredentialsPersistenceManager credentialsPersistenceManager = new CredentialsPersistenceManager(credentialsFile, parameters.getJournalThreshold().getOrElse(0L));
+        int applied = credentialsPersistenceManager.updateCredentials(changes, credentialsEncryptor::isSameValue);
+        LOGGER.debug(String.format("Applied %d of %d credentials changes", applied, changes.size()));
+    }
+
+    private static OrderedProperties loadProperties(File file) {
+        // read the file in plain properties format, neither detecting another format nor replaying a journal
+        OrderedProperties properties = new OrderedProperties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return properties;
+    }
+
+}
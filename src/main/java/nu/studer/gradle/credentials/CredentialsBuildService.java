@@ -0,0 +1,315 @@
+package nu.studer.gradle.credentials;
+
+import nu.studer.gradle.credentials.domain.CredentialsBackend;
+import nu.studer.gradle.credentials.domain.CredentialsBackends;
+import nu.studer.gradle.credentials.domain.CredentialsContainer;
+import nu.studer.gradle.credentials.domain.CredentialsEncryptor;
+import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
+import nu.studer.gradle.credentials.domain.CredentialsSnapshot;
+import nu.studer.gradle.credentials.domain.CredentialsSnapshotCache;
+import nu.studer.gradle.credentials.domain.CredentialsStatistics;
+import nu.studer.gradle.credentials.domain.DerivedKeyCache;
+import nu.studer.gradle.credentials.domain.FileCredentialsBackend;
+import nu.studer.gradle.credentials.domain.KeyDerivation;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Build service that holds the credentials state that is shared by all projects and the settings of a build. The secret keys of a given passphrase are derived only once per
+ * build, regardless of how many times the credentials plugin is applied. Likewise, a given credentials file is only read again if it has changed since it was last read.
+ * <p>
+ * If the credentials plugin is applied to the settings, the service holds the credentials container of the settings, which is inherited by all projects that apply the
+ * plugin with the same configuration.
+ * <p>
+ * The service is registered when the credentials plugin is applied for the first time in a build, and it is closed by Gradle once the build has finished, at which point all
+ * shared state is released and the decrypted credentials memoized by the registered credentials containers are wiped.
+ * <p>
+ * The service collects statistics about the key derivations, file reads, and decryptions of the build. The statistics are logged at info level when the build has finished, and
+ * written as JSON to the report file, if configured.
+ * <p>
+ * Credentials that are prefetched through {@link CredentialsContainer#prefetch(String...)} are decrypted on a small pool of threads owned by the service.
+ * <p>
+ * Optionally, derived secret keys are cached beyond the build for a configured time to live, such that subsequent builds in the same Gradle daemon skip the key derivation.
+ */
+public abstract class CredentialsBuildService implements BuildService<CredentialsBuildService.Parameters>, AutoCloseable {
+
+    public interface Parameters extends BuildServiceParameters {
+
+        RegularFileProperty getReportFile();
+
+        Property<Long> getKeyCacheTimeToLiveSeconds();
+
+        Property<Integer> getKeyDerivationIterations();
+
+    }
+
+    public static final String NAME = "credentials";
+
+    private static final int PREFETCH_THREADS = Math.min(2, Runtime.getRuntime().availableProcessors());
+    private static final long PREFETCH_TIMEOUT_SECONDS = 30;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsBuildService.class);
+
+    private final ConcurrentMap<String, CredentialsEncryptor> encryptors = new ConcurrentHashMap<>();
+    private final CredentialsStatistics statistics = new CredentialsStatistics();
+    private final CredentialsSnapshotCache snapshots = new CredentialsSnapshotCache(statistics);
+    private final Queue<CredentialsContainer> containers = new ConcurrentLinkedQueue<>();
+    private Object settingsConfiguration;
+    private ExecutorService prefetchExecutor;
+    private boolean prefetchStopped;
+    private CredentialsContainer settingsContainer;
+
+    /**
+     * Returns the credentials encryptor for the given passphrase. The secret keys are derived on first use and shared for all subsequent accesses with the same passphrase.
+     *
+     * @param passphrase the passphrase to encrypt/decrypt the credentials with
+     * @return the shared credentials encryptor
+     */
+    public CredentialsEncryptor getEncryptor(String passphrase) {
+        // key the encryptors by the name of the credentials file of their passphrase, such that the encryptor of a credentials file can be looked up without the passphrase
+        return encryptors.computeIfAbsent(CredentialsPlugin.deriveFileNameFromPassphrase(passphrase), fileName -> {
+            KeyDerivation keyDerivation = KeyDerivation.create(getParameters().getKeyDerivationIterations().getOrElse(KeyDerivation.DEFAULT_ITERATIONS));
+            return CredentialsEncryptor.withPassphrase(passphrase.toCharArray(), keyDerivation, this::getOrDeriveKey);
+        });
+    }
+
+    /**
+     * Returns the credentials encryptor for the credentials file of the given persistence manager that encrypts new credentials with the same secret key as the existing
+     * credentials of the file, such that the secret key needs to be derived only once per credentials file. The passphrase of the credentials file must already have been
+     * resolved in the same build through {@link #getEncryptor(String)}, such that the passphrase does not need to be passed along, e.g. to a work action.
+     *
+     * @param credentialsPersistenceManager the persistence manager of the credentials file
+     * @return the credentials encryptor for the credentials file
+     */
+    public CredentialsEncryptor getEncryptor(CredentialsPersistenceManager credentialsPersistenceManager) {
+        File credentialsFile = credentialsPersistenceManager.getCredentialsFile();
+        CredentialsEncryptor credentialsEncryptor = encryptors.get(credentialsFile.getName());
+        if (credentialsEncryptor == null) {
+            throw new IllegalStateException("The passphrase of the credentials file has not been resolved: " + credentialsFile.getAbsolutePath());
+        }
+        return credentialsEncryptor.forCredentials(getSnapshot(credentialsPersistenceManager).values());
+    }
+
+    private byte[] getOrDeriveKey(KeyDerivation keyDerivation, char[] passphrase) {
+        long timeToLiveSeconds = getParameters().getKeyCacheTimeToLiveSeconds().getOrElse(0L);
+        if (timeToLiveSeconds <= 0) {
+            return deriveKey(keyDerivation, passphrase);
+        }
+
+        // reuse the secret key derived in a previous build of the same daemon, if not yet expired
+        AtomicBoolean derived = new AtomicBoolean();
+        byte[] derivedKey = DerivedKeyCache.shared().getOrDerive(keyDerivation.id(passphrase), TimeUnit.SECONDS.toNanos(timeToLiveSeconds), () -> {
+            derived.set(true);
+            return deriveKey(keyDerivation, passphrase);
+        });
+        if (!derived.get()) {
+            LOGGER.debug("Reuse cached secret key for credentials encryptor");
+            statistics.recordKeyCacheHit();
+        }
+        return derivedKey;
+    }
+
+    private byte[] deriveKey(KeyDerivation keyDerivation, char[] passphrase) {
+        LOGGER.debug("Derive secret key for credentials encryptor: " + keyDerivation);
+        long start = System.nanoTime();
+        byte[] derivedKey = keyDerivation.deriveKey(passphrase);
+        statistics.recordKeyDerivation(System.nanoTime() - start);
+        return derivedKey;
+    }
+
+    /**
+     * Returns the backend with the given name for the credentials file of the given passphrase. The file backend decrypts the shared snapshot of the credentials file with the
+     * shared credentials encryptor of the passphrase.
+     *
+     * @param backendName the name of the backend, see {@link CredentialsBackends}
+     * @param passphrase the passphrase to decrypt the credentials with
+     * @param credentialsFile the credentials file of the passphrase
+     * @return the backend
+     */
+    public CredentialsBackend getBackend(String backendName, String passphrase, File credentialsFile) {
+        return getBackend(backendName, passphrase, credentialsFile, false);
+    }
+
+    /**
+     * Returns the backend with the given name for the credentials file of the given passphrase. If reloading is enabled, the file backend gets the shared snapshot of the
+     * credentials file on each access, such that changes to the credentials file are picked up while the build is running.
+     *
+     * @param backendName the name of the backend, see {@link CredentialsBackends}
+     * @param passphrase the passphrase to decrypt the credentials with
+     * @param credentialsFile the credentials file of the passphrase
+     * @param reload whether to pick up changes to the credentials file on each access
+     * @return the backend
+     */
+    public CredentialsBackend getBackend(String backendName, String passphrase, File credentialsFile, boolean reload) {
+        return CredentialsBackends.forName(backendName).create(new CredentialsBackend.Context() {
+
+            @Override
+            public File getCredentialsFile() {
+                return credentialsFile;
+            }
+
+            @Override
+            public CredentialsBackend getFileBackend() {
+                CredentialsPersistenceManager credentialsPersistenceManager = new CredentialsPersistenceManager(credentialsFile);
+                if (reload) {
+                    return new FileCredentialsBackend(getEncryptor(passphrase), () -> getSnapshot(credentialsPersistenceManager));
+                }
+                return new FileCredentialsBackend(getEncryptor(passphrase), getSnapshot(credentialsPersistenceManager));
+            }
+
+        });
+    }
+
+    /**
+     * Returns the snapshot of the credentials file managed by the given persistence manager. The snapshot is shared for all subsequent accesses to the same file, as long as the
+     * file does not change.
+     *
+     * @param credentialsPersistenceManager the persistence manager of the credentials file
+     * @return the shared snapshot of the credentials file
+     */
+    public CredentialsSnapshot getSnapshot(CredentialsPersistenceManager credentialsPersistenceManager) {
+        return snapshots.get(credentialsPersistenceManager);
+    }
+
+    /**
+     * Returns the statistics of the credentials accesses of the build.
+     *
+     * @return the shared statistics
+     */
+    public CredentialsStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Registers the given credentials container such that its decrypted credentials are wiped when the build finishes.
+     *
+     * @param container the credentials container to wipe at the end of the build
+     */
+    public void registerContainer(CredentialsContainer container) {
+        containers.add(container);
+    }
+
+    /**
+     * Returns the executor that decrypts prefetched credentials in the background. The threads of the executor are only started once credentials are prefetched, and they are
+     * stopped when the build finishes. Credentials that are prefetched once the service has been closed are not decrypted ahead of their first access.
+     *
+     * @return the shared prefetch executor
+     */
+    public Executor getPrefetchExecutor() {
+        return this::prefetch;
+    }
+
+    private synchronized void prefetch(Runnable command) {
+        if (prefetchStopped) {
+            LOGGER.debug("Skip prefetching credentials after the credentials build service has been closed");
+            return;
+        }
+        if (prefetchExecutor == null) {
+            AtomicInteger threads = new AtomicInteger();
+            prefetchExecutor = Executors.newFixedThreadPool(PREFETCH_THREADS, (Runnable runnable) -> {
+                Thread thread = new Thread(runnable, "credentials-prefetch-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            LOGGER.debug("Started " + PREFETCH_THREADS + " thread(s) to prefetch credentials");
+        }
+        prefetchExecutor.execute(command);
+    }
+
+    /**
+     * Publishes the credentials container of the settings, such that projects with the same configuration can inherit it rather than creating their own.
+     *
+     * @param configuration the configuration that determines the state of the container, compared by equality
+     * @param container the credentials container of the settings
+     */
+    public synchronized void publishSettingsContainer(Object configuration, CredentialsContainer container) {
+        settingsContainer = container;
+        settingsConfiguration = configuration;
+    }
+
+    /**
+     * Returns the credentials container published by the settings, if it was created with the given configuration.
+     *
+     * @param configuration the configuration of the project
+     * @return the credentials container of the settings, or null if no container was published or the container was created with a different configuration
+     */
+    public synchronized CredentialsContainer getSettingsContainer(Object configuration) {
+        return configuration.equals(settingsConfiguration) ? settingsContainer : null;
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Release " + encryptors.size() + " shared credentials encryptor(s)");
+        encryptors.clear();
+        snapshots.clear();
+        DerivedKeyCache.shared().evictExpired();
+        publishSettingsContainer(null, null);
+
+        // let the pending prefetches complete before wiping the containers, such that no credentials are decrypted after the containers have been wiped
+        stopPrefetchExecutor();
+
+        CredentialsContainer container;
+        while ((container = containers.poll()) != null) {
+            LOGGER.debug(String.format("Wipe credentials container with %d cache hit(s) and %d cache miss(es)", container.getCacheHits(), container.getCacheMisses()));
+            container.wipe();
+        }
+
+        LOGGER.info(statistics.toSummary());
+        if (getParameters().getReportFile().isPresent()) {
+            writeReport(getParameters().getReportFile().get().getAsFile());
+        }
+    }
+
+    private void stopPrefetchExecutor() {
+        // do not accept any further prefetches, then wait for the pending prefetches without holding the lock
+        ExecutorService executor;
+        synchronized (this) {
+            prefetchStopped = true;
+            executor = prefetchExecutor;
+            prefetchExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(PREFETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.warn("Prefetching credentials did not complete within " + PREFETCH_TIMEOUT_SECONDS + " seconds");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeReport(File reportFile) {
+        // a failure to write the report must not fail the build
+        try {
+            Files.createDirectories(reportFile.getAbsoluteFile().getParentFile().toPath());
+            Files.write(reportFile.toPath(), statistics.toJson().getBytes(StandardCharsets.UTF_8));
+            LOGGER.debug("Wrote credentials statistics report: " + reportFile.getAbsolutePath());
+        } catch (IOException e) {
+            LOGGER.warn("Could not write credentials statistics report: " + reportFile.getAbsolutePath(), e);
+        }
+    }
+
+}
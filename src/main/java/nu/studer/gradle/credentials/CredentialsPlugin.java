@@ -1,35 +1,62 @@
 package nu.studer.gradle.credentials;
 
+import nu.studer.gradle.credentials.domain.CredentialsBackend;
+import nu.studer.gradle.credentials.domain.CredentialsBackends;
 import nu.studer.gradle.credentials.domain.CredentialsContainer;
-import nu.studer.gradle.credentials.domain.CredentialsEncryptor;
-import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
+import nu.studer.gradle.credentials.domain.CredentialsStatistics;
 import nu.studer.gradle.util.MD5;
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.UncheckedIOException;
 import org.gradle.api.initialization.Settings;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.plugins.ExtensionAware;
 import org.gradle.api.plugins.ExtraPropertiesExtension;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.tasks.TaskContainer;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.util.GradleVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 /**
  * Plugin to store and access encrypted credentials using password-based encryption (PBE). The credentials are stored in the Gradle home directory in a separate file for each
  * passphrase. If no passphrase is provided, a default passphrase is used and the credentials are stored in the default credentials file 'gradle.encrypted.properties'. While
- * running a build, only one passphrase is active per project.
+ * running a build, one passphrase is active, unless further named credentials stores with their own passphrase and location are mounted through the 'credentialsStores'
+ * property. The passphrases are read from the Gradle properties only once credentials are decrypted or the tasks are executed, such that they are never stored in the
+ * configuration cache.
  * <p>
  * The plugin provides a credentials container through the 'credentials' property that is available from the Gradle project. This allows access to credentials in the form of
  * <code>project.myCredentialKey</code>. The already persisted credentials can be accessed through the credentials container, and new credentials can be added to the container
- * ad-hoc while the build is executed. Credentials added ad-hoc are not available beyond the lifetime of the build.
+ * ad-hoc while the build is executed. Credentials added ad-hoc are not available beyond the lifetime of the build. If the 'credentialsReload' property is set to true, changes
+ * to the credentials files are picked up while the build is running, e.g. in a continuous build, and only the changed credentials are decrypted again.
  * <p>
- * The plugin adds a task to add credentials and a task to remove credentials.
+ * If the plugin is applied to the settings, the settings publish their credentials container to all projects of the build. Projects that apply the plugin with the same
+ * location, stores, backend, and reload setting inherit that container rather than creating their own.
+ * <p>
+ * The credentials can also be accessed lazily in the form of <code>credentials.provider('myCredentialKey')</code>, in which case they are only read and decrypted when the
+ * provider is queried. This allows to use credentials as task inputs without storing them in the configuration cache.
+ * <p>
+ * The plugin adds a task to add credentials, a task to remove credentials, a task to convert the credentials file between the properties and the binary format, a task to
+ * re-encrypt the credentials in the current encryption format, and a task to rotate the passphrase of the credentials.
  */
 public class CredentialsPlugin implements Plugin<ExtensionAware> {
 
@@ -42,60 +69,220 @@ public class CredentialsPlugin implements Plugin<ExtensionAware> {
     public static final String CREDENTIALS_PASSPHRASE_PROPERTY = "credentialsPassphrase";
     public static final String CREDENTIALS_KEY_PROPERTY = "credentialsKey";
     public static final String CREDENTIALS_VALUE_PROPERTY = "credentialsValue";
+    public static final String CREDENTIALS_FORMAT_PROPERTY = "credentialsFormat";
+    public static final String CREDENTIALS_REPORT_FILE_PROPERTY = "credentialsReportFile";
+    public static final String CREDENTIALS_KEY_CACHE_TTL_PROPERTY = "credentialsKeyCacheTtl";
+    public static final String CREDENTIALS_KDF_ITERATIONS_PROPERTY = "credentialsKdfIterations";
+    public static final String CREDENTIALS_BACKEND_PROPERTY = "credentialsBackend";
+    public static final String CREDENTIALS_JOURNAL_THRESHOLD_PROPERTY = "credentialsJournalThreshold";
+    public static final String CREDENTIALS_STORES_PROPERTY = "credentialsStores";
+    public static final String CREDENTIALS_NEW_PASSPHRASE_PROPERTY = "credentialsNewPassphrase";
+    public static final String CREDENTIALS_NEW_PASSPHRASE_ENVIRONMENT_VARIABLE = "GRADLE_CREDENTIALS_NEW_PASSPHRASE";
+    public static final String CREDENTIALS_RELOAD_PROPERTY = "credentialsReload";
+
+    public static final String DEFAULT_STORE = "default";
 
     public static final String ADD_CREDENTIALS_TASK_NAME = "addCredentials";
     public static final String REMOVE_CREDENTIALS_TASK_NAME = "removeCredentials";
+    public static final String MIGRATE_CREDENTIALS_TASK_NAME = "migrateCredentials";
+    public static final String REENCRYPT_CREDENTIALS_TASK_NAME = "reencryptCredentials";
+    public static final String ROTATE_CREDENTIALS_TASK_NAME = "rotateCredentials";
 
     public static final String GROUP = "Credentials";
 
-    private static final Action<Pair> NOOP = (Pair p) -> {
+    private static final Action<Context> NOOP = (Context c) -> {
     };
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsPlugin.class);
 
+    private final ProviderFactory providers;
+
+    @Inject
+    public CredentialsPlugin(ProviderFactory providers) {
+        this.providers = providers;
+    }
+
     @SuppressWarnings("NullableProblems")
     @Override
     public void apply(ExtensionAware extensionAware) {
         // abort if old Gradle version is not supported
-        if (GradleVersion.current().getBaseVersion().compareTo(GradleVersion.version("5.0")) < 0) {
-            throw new IllegalStateException("This version of the credentials plugin is not compatible with Gradle < 5.0");
+        if (GradleVersion.current().getBaseVersion().compareTo(GradleVersion.version("6.2")) < 0) {
+            throw new IllegalStateException("This version of the credentials plugin is not compatible with Gradle < 6.2");
         }
 
         // handle plugin application to settings file and project file
         if (extensionAware instanceof Settings) {
             Settings settings = (Settings) extensionAware;
-            init(settings.getGradle(), settings, (String loc) -> settings.getSettingsDir().toPath().resolve(loc).toFile(), NOOP);
+            init(settings.getGradle(), settings, settings.getRootDir(), (String loc) -> settings.getSettingsDir().toPath().resolve(loc).toFile(), NOOP);
         } else if (extensionAware instanceof Project) {
             Project project = (Project) extensionAware;
-            init(project.getGradle(), project, project::file, (Pair creds) -> addTasks(creds, project.getTasks()));
+            init(project.getGradle(), project, project.getRootDir(), project::file, (Context context) -> addTasks(context, project.getTasks()));
         } else {
             throw new IllegalStateException("The credentials plugin can only be applied to Settings and Project instances");
         }
     }
 
-    private void init(Gradle gradle, ExtensionAware extensionAware, Function<String, File> locationResolver, Action<Pair> customizations) {
-        // get the passphrase from the project properties, otherwise use the default passphrase
-        String passphrase = getStringProperty(CREDENTIALS_PASSPHRASE_PROPERTY, DEFAULT_PASSPHRASE, extensionAware);
-
-        // derive the name of the credentials file from the passphrase
-        String credentialsFileName = deriveFileNameFromPassphrase(passphrase);
-
-        // create credentials encryptor for the given passphrase
-        CredentialsEncryptor credentialsEncryptor = CredentialsEncryptor.withPassphrase(passphrase.toCharArray());
+    private void init(Gradle gradle, ExtensionAware extensionAware, File rootDir, Function<String, File> locationResolver, Action<Context> customizations) {
+        // register the build service that holds the credentials encryptor for the given passphrase, shared across all projects of the build
+        Provider<CredentialsBuildService> credentialsBuildService = registerBuildService(gradle, rootDir);
 
-        // create a credentials persistence manager that operates on the credentials file, possibly located in a user-configured folder
+        // determine the folder of the credentials file, possibly a user-configured folder, while the passphrase and thus the name of the credentials file are only resolved
+        // once credentials are decrypted or the tasks are executed
         String credentialsLocation = getStringProperty(CREDENTIALS_LOCATION_PROPERTY, null, extensionAware);
         File credentialsLocationDir = credentialsLocation != null ? locationResolver.apply(credentialsLocation) : gradle.getGradleUserHomeDir();
-        File credentialsFile = new File(credentialsLocationDir, credentialsFileName);
-        CredentialsPersistenceManager credentialsPersistenceManager = new CredentialsPersistenceManager(credentialsFile);
+        Store defaultStore = createStore(DEFAULT_STORE, CREDENTIALS_PASSPHRASE_PROPERTY, credentialsLocationDir, gradle, extensionAware);
+
+        // determine the mounted credentials stores in the order in which they are queried, the default store being queried first unless listed explicitly
+        List<Store> stores = new ArrayList<>();
+        List<String> storeNames = new ArrayList<>(Arrays.asList(getStringProperty(CREDENTIALS_STORES_PROPERTY, DEFAULT_STORE, extensionAware).split(",")));
+        storeNames.replaceAll(String::trim);
+        if (!storeNames.contains(DEFAULT_STORE)) {
+            storeNames.add(0, DEFAULT_STORE);
+        }
+        for (String storeName : storeNames) {
+            if (storeName.equals(DEFAULT_STORE)) {
+                stores.add(defaultStore);
+            } else {
+                String storeLocation = getStringProperty(CREDENTIALS_LOCATION_PROPERTY + "." + storeName, null, extensionAware);
+                File storeLocationDir = storeLocation != null ? locationResolver.apply(storeLocation) : gradle.getGradleUserHomeDir();
+                stores.add(createStore(storeName, CREDENTIALS_PASSPHRASE_PROPERTY + "." + storeName, storeLocationDir, gradle, extensionAware));
+            }
+        }
 
-        // add a new 'credentials' property and transiently store the persisted credentials for access in build scripts
-        CredentialsContainer credentialsContainer = new CredentialsContainer(credentialsEncryptor, credentialsPersistenceManager.readCredentials());
+        // inherit the credentials container published by the plugin applied to the settings, unless the project configures a different location, backend, stores, or reload
+        String backend = getStringProperty(CREDENTIALS_BACKEND_PROPERTY, CredentialsBackends.FILE, extensionAware);
+        boolean reload = Boolean.parseBoolean(getStringProperty(CREDENTIALS_RELOAD_PROPERTY, "false", extensionAware));
+        Configuration configuration = new Configuration(backend, reload, stores);
+        CredentialsContainer credentialsContainer = extensionAware instanceof Project ? credentialsBuildService.get().getSettingsContainer(configuration) : null;
+        if (credentialsContainer != null) {
+            LOGGER.debug("Inherit credentials container from settings");
+        } else {
+            credentialsContainer = createCredentialsContainer(configuration, credentialsBuildService);
+            if (extensionAware instanceof Settings) {
+                credentialsBuildService.get().publishSettingsContainer(configuration, credentialsContainer);
+            }
+        }
         setProperty(CREDENTIALS_CONTAINER_PROPERTY, credentialsContainer, extensionAware);
         LOGGER.debug("Registered property '" + CREDENTIALS_CONTAINER_PROPERTY + "'");
 
+        // append changes to the journal of the credentials file, if configured through the project properties
+        String journalThreshold = getStringProperty(CREDENTIALS_JOURNAL_THRESHOLD_PROPERTY, null, extensionAware);
+
         // allow further ExtensionAware-specific customization
-        customizations.execute(new Pair(credentialsEncryptor, credentialsPersistenceManager));
+        customizations.execute(new Context(credentialsBuildService, passphrase(defaultStore), credentialsFile(defaultStore),
+            journalThreshold != null ? Long.parseLong(journalThreshold) : null));
+    }
+
+    private Store createStore(String name, String passphraseProperty, File locationDir, Gradle gradle, ExtensionAware extensionAware) {
+        // remember the credentials file of a passphrase that is set as a project property, e.g. as an extra property or in the gradle.properties file of a subproject, such
+        // that the passphrase resolved from the Gradle properties can be checked against it, without storing the passphrase itself in the configuration cache; since any
+        // read of a project property is recorded by the configuration cache, only the gradle.properties files of the subprojects are read if the cache is requested
+        String projectPassphrase = isConfigurationCacheRequested(gradle) ? getSubprojectProperty(passphraseProperty, extensionAware)
+            : getStringProperty(passphraseProperty, null, extensionAware);
+        String projectPassphraseFileName = projectPassphrase != null ? deriveFileNameFromPassphrase(projectPassphrase) : null;
+        return new Store(name, passphraseProperty, locationDir, projectPassphraseFileName, extensionAware.toString());
+    }
+
+    private Provider<String> passphrase(Store store) {
+        // get the passphrase from the Gradle properties when it is queried, otherwise use the default passphrase, such that the passphrase is never read while configuring
+        // the build and thus never stored in the configuration cache
+        Provider<String> passphrase = providers.gradleProperty(store.passphraseProperty).orElse(DEFAULT_PASSPHRASE);
+        if (store.projectPassphraseFileName == null) {
+            return passphrase;
+        }
+
+        // fail rather than silently falling back to another credentials file if a passphrase set as a project property differs from the one of the Gradle properties
+        String passphraseProperty = store.passphraseProperty;
+        String projectPassphraseFileName = store.projectPassphraseFileName;
+        String owner = store.owner;
+        return passphrase.map(resolved -> {
+            if (!deriveFileNameFromPassphrase(resolved).equals(projectPassphraseFileName)) {
+                throw new IllegalStateException("The passphrase set through the '" + passphraseProperty + "' property of " + owner + " differs from the passphrase of the "
+                    + "Gradle properties and is not supported. Pass the passphrase on the command line, in the gradle.properties file of the root project or the Gradle user "
+                    + "home, or through the ORG_GRADLE_PROJECT_" + passphraseProperty + " environment variable.");
+            }
+            return resolved;
+        });
+    }
+
+    private Provider<File> credentialsFile(Store store) {
+        // derive the name of the credentials file from the passphrase
+        File locationDir = store.locationDir;
+        return passphrase(store).map(passphrase -> new File(locationDir, deriveFileNameFromPassphrase(passphrase)));
+    }
+
+    private CredentialsContainer createCredentialsContainer(Configuration configuration, Provider<CredentialsBuildService> credentialsBuildService) {
+        // transiently store the credentials of the configured backend for access in build scripts, by default sharing the same snapshot of each credentials file across all
+        // projects of the build, and only deriving the key of a store once credentials of the store are decrypted, optionally picking up changes to the credentials files
+        String backend = configuration.backend;
+        CredentialsStatistics statistics = credentialsBuildService.get().getStatistics();
+        Executor prefetchExecutor = credentialsBuildService.get().getPrefetchExecutor();
+        Map<String, CredentialsContainer> storeContainers = new LinkedHashMap<>();
+        for (Store store : configuration.stores) {
+            Provider<String> passphrase = passphrase(store);
+            Provider<File> credentialsFile = credentialsFile(store);
+            CredentialsBackend storeBackend = CredentialsBackends.lazy(() -> credentialsBuildService.get().getBackend(backend, passphrase.get(), credentialsFile.get(),
+                configuration.reload));
+            Function<String, Provider<String>> lazyStoreCredentials = (String key) -> createCredentialsProvider(key, backend, Collections.singletonList(store), credentialsBuildService);
+            storeContainers.put(store.name, CredentialsContainer.withBackend(storeBackend, lazyStoreCredentials, statistics, prefetchExecutor));
+        }
+        Function<String, Provider<String>> lazyCredentials = (String key) -> createCredentialsProvider(key, backend, configuration.stores, credentialsBuildService);
+        CredentialsContainer credentialsContainer = CredentialsContainer.withStores(storeContainers, lazyCredentials);
+        credentialsBuildService.get().registerContainer(credentialsContainer);
+        return credentialsContainer;
+    }
+
+    private Provider<String> createCredentialsProvider(String key, String backend, List<Store> stores, Provider<CredentialsBuildService> credentialsBuildService) {
+        return providers.of(CredentialsValueSource.class, spec -> {
+            CredentialsValueSource.Parameters parameters = spec.getParameters();
+            parameters.getKey().set(key);
+            parameters.getBackend().set(backend);
+            for (Store store : stores) {
+                parameters.getPassphrases().add(passphrase(store));
+                parameters.getCredentialsFiles().add(credentialsFile(store));
+            }
+            parameters.getCredentialsBuildService().set(credentialsBuildService);
+        });
+    }
+
+    private Provider<CredentialsBuildService> registerBuildService(Gradle gradle, File rootDir) {
+        // write the statistics of the credentials accesses to a report file, cache the derived secret keys across builds, and apply a custom key derivation cost, if
+        // configured through the Gradle properties, which are the same for all projects, such that it does not matter which project registers the shared service first
+        return gradle.getSharedServices().registerIfAbsent(CredentialsBuildService.NAME, CredentialsBuildService.class, spec -> {
+            CredentialsBuildService.Parameters parameters = spec.getParameters();
+            parameters.getReportFile().fileProvider(providers.gradleProperty(CREDENTIALS_REPORT_FILE_PROPERTY).map(path -> rootDir.toPath().resolve(path).toFile()));
+            parameters.getKeyCacheTimeToLiveSeconds().set(providers.gradleProperty(CREDENTIALS_KEY_CACHE_TTL_PROPERTY).map(Long::parseLong));
+            parameters.getKeyDerivationIterations().set(providers.gradleProperty(CREDENTIALS_KDF_ITERATIONS_PROPERTY).map(Integer::parseInt));
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private static boolean isConfigurationCacheRequested(Gradle gradle) {
+        // assume the configuration cache is requested on Gradle versions that cannot tell
+        return GradleVersion.current().getBaseVersion().compareTo(GradleVersion.version("7.6")) < 0 || gradle.getStartParameter().isConfigurationCacheRequested();
+    }
+
+    private static String getSubprojectProperty(String key, ExtensionAware extensionAware) {
+        if (!(extensionAware instanceof Project)) {
+            return null;
+        }
+
+        // read the gradle.properties files of the project and its parent projects below the root project, the file of the closest project taking precedence
+        for (Project project = (Project) extensionAware; project.getParent() != null; project = project.getParent()) {
+            File propertiesFile = new File(project.getProjectDir(), "gradle.properties");
+            if (propertiesFile.isFile()) {
+                Properties properties = new Properties();
+                try (InputStream inputStream = new FileInputStream(propertiesFile)) {
+                    properties.load(inputStream);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (properties.getProperty(key) != null) {
+                    return properties.getProperty(key);
+                }
+            }
+        }
+        return null;
     }
 
     private String getStringProperty(String key, String defaultValue, ExtensionAware extensionAware) {
@@ -108,20 +295,56 @@ public class CredentialsPlugin implements Plugin<ExtensionAware> {
         properties.set(key, value);
     }
 
-    private void addTasks(Pair result, TaskContainer tasks) {
-        CredentialsEncryptor credentialsEncryptor = result.credentialsEncryptor;
-        CredentialsPersistenceManager credentialsPersistenceManager = result.credentialsPersistenceManager;
-
-        // add a task instance that stores new credentials through the credentials persistence manager
-        TaskProvider<AddCredentialsTask> addCredentialsTaskProvider = tasks.register(ADD_CREDENTIALS_TASK_NAME, AddCredentialsTask.class, credentialsEncryptor, credentialsPersistenceManager);
+    private void addTasks(Context context, TaskContainer tasks) {
+        // add a task instance that stores new credentials in the credentials file
+        TaskProvider<AddCredentialsTask> addCredentialsTaskProvider = tasks.register(ADD_CREDENTIALS_TASK_NAME, AddCredentialsTask.class, task -> {
+            task.getCredentialsKey().convention(providers.gradleProperty(CREDENTIALS_KEY_PROPERTY));
+            task.getCredentialsValue().convention(providers.gradleProperty(CREDENTIALS_VALUE_PROPERTY));
+            task.getPassphrase().set(context.passphrase);
+            task.getCredentialsBuildService().set(context.credentialsBuildService);
+            task.getJournalThreshold().set(context.journalThreshold);
+            task.getEncryptedPropertiesFile().fileProvider(context.credentialsFile);
+            task.usesService(context.credentialsBuildService);
+        });
         LOGGER.debug(String.format("Registered task '%s'", addCredentialsTaskProvider.getName()));
 
-        // add a task instance that removes some credentials through the credentials persistence manager
-        TaskProvider<RemoveCredentialsTask> removeCredentialsProvider = tasks.register(REMOVE_CREDENTIALS_TASK_NAME, RemoveCredentialsTask.class, credentialsPersistenceManager);
+        // add a task instance that removes some credentials from the credentials file
+        TaskProvider<RemoveCredentialsTask> removeCredentialsProvider = tasks.register(REMOVE_CREDENTIALS_TASK_NAME, RemoveCredentialsTask.class, task -> {
+            task.getCredentialsKey().convention(providers.gradleProperty(CREDENTIALS_KEY_PROPERTY));
+            task.getJournalThreshold().set(context.journalThreshold);
+            task.getEncryptedPropertiesFile().fileProvider(context.credentialsFile);
+        });
         LOGGER.debug(String.format("Registered task '%s'", removeCredentialsProvider.getName()));
+
+        // add a task instance that converts the credentials file to another format
+        TaskProvider<MigrateCredentialsTask> migrateCredentialsProvider = tasks.register(MIGRATE_CREDENTIALS_TASK_NAME, MigrateCredentialsTask.class, task -> {
+            task.getCredentialsFormat().convention(providers.gradleProperty(CREDENTIALS_FORMAT_PROPERTY));
+            task.getEncryptedPropertiesFile().fileProvider(context.credentialsFile);
+        });
+        LOGGER.debug(String.format("Registered task '%s'", migrateCredentialsProvider.getName()));
+
+        // add a task instance that re-encrypts the credentials in the credentials file in the current encryption format
+        TaskProvider<ReencryptCredentialsTask> reencryptCredentialsProvider = tasks.register(REENCRYPT_CREDENTIALS_TASK_NAME, ReencryptCredentialsTask.class, task -> {
+            task.getPassphrase().set(context.passphrase);
+            task.getCredentialsBuildService().set(context.credentialsBuildService);
+            task.getEncryptedPropertiesFile().fileProvider(context.credentialsFile);
+            task.usesService(context.credentialsBuildService);
+        });
+        LOGGER.debug(String.format("Registered task '%s'", reencryptCredentialsProvider.getName()));
+
+        // add a task instance that re-encrypts the credentials in the credentials file with a new passphrase
+        TaskProvider<RotateCredentialsTask> rotateCredentialsProvider = tasks.register(ROTATE_CREDENTIALS_TASK_NAME, RotateCredentialsTask.class, task -> {
+            task.getPassphrase().set(context.passphrase);
+            task.getNewCredentialsPassphrase().set(providers.environmentVariable(CREDENTIALS_NEW_PASSPHRASE_ENVIRONMENT_VARIABLE)
+                .orElse(providers.gradleProperty(CREDENTIALS_NEW_PASSPHRASE_PROPERTY)));
+            task.getCredentialsBuildService().set(context.credentialsBuildService);
+            task.getEncryptedPropertiesFile().fileProvider(context.credentialsFile);
+            task.usesService(context.credentialsBuildService);
+        });
+        LOGGER.debug(String.format("Registered task '%s'", rotateCredentialsProvider.getName()));
     }
 
-    private String deriveFileNameFromPassphrase(String passphrase) {
+    static String deriveFileNameFromPassphrase(String passphrase) {
         // derive the name of the file that contains the credentials from the given passphrase
         String credentialsFileName;
         if (passphrase.equals(DEFAULT_PASSPHRASE)) {
@@ -134,14 +357,95 @@ public class CredentialsPlugin implements Plugin<ExtensionAware> {
         return credentialsFileName;
     }
 
-    private static final class Pair {
+    private static final class Store {
+
+        private final String name;
+        private final String passphraseProperty;
+        private final File locationDir;
+        private final String projectPassphraseFileName;
+        private final String owner;
+
+        private Store(String name, String passphraseProperty, File locationDir, String projectPassphraseFileName, String owner) {
+            this.name = name;
+            this.passphraseProperty = passphraseProperty;
+            this.locationDir = locationDir.getAbsoluteFile();
+            this.projectPassphraseFileName = projectPassphraseFileName;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Store that = (Store) o;
+            return name.equals(that.name) && passphraseProperty.equals(that.passphraseProperty) && locationDir.equals(that.locationDir)
+                && Objects.equals(projectPassphraseFileName, that.projectPassphraseFileName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = name.hashCode();
+            result = 31 * result + passphraseProperty.hashCode();
+            result = 31 * result + locationDir.hashCode();
+            result = 31 * result + Objects.hashCode(projectPassphraseFileName);
+            return result;
+        }
+
+    }
+
+    /**
+     * The configuration that determines the state of a credentials container. Projects with the same configuration as the settings share the container of the settings.
+     */
+    private static final class Configuration {
+
+        private final String backend;
+        private final boolean reload;
+        private final List<Store> stores;
+
+        private Configuration(String backend, boolean reload, List<Store> stores) {
+            this.backend = backend;
+            this.reload = reload;
+            this.stores = stores;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Configuration that = (Configuration) o;
+            return backend.equals(that.backend) && reload == that.reload && stores.equals(that.stores);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = backend.hashCode();
+            result = 31 * result + Boolean.hashCode(reload);
+            result = 31 * result + stores.hashCode();
+            return result;
+        }
+
+    }
+
+    private static final class Context {
 
-        private final CredentialsEncryptor credentialsEncryptor;
-        private final CredentialsPersistenceManager credentialsPersistenceManager;
+        private final Provider<CredentialsBuildService> credentialsBuildService;
+        private final Provider<String> passphrase;
+        private final Provider<File> credentialsFile;
+        private final Long journalThreshold;
 
-        private Pair(CredentialsEncryptor credentialsEncryptor, CredentialsPersistenceManager credentialsPersistenceManager) {
-            this.credentialsEncryptor = credentialsEncryptor;
-            this.credentialsPersistenceManager = credentialsPersistenceManager;
+        private Context(Provider<CredentialsBuildService> credentialsBuildService, Provider<String> passphrase, Provider<File> credentialsFile, Long journalThreshold) {
+            this.credentialsBuildService = credentialsBuildService;
+            this.passphrase = passphrase;
+            this.credentialsFile = credentialsFile;
+            this.journalThreshold = journalThreshold;
         }
 
     }
@@ -0,0 +1,67 @@
+package nu.studer.gradle.credentials;
+
+import nu.studer.gradle.credentials.domain.CredentialsBackend;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Value source that reads and decrypts the credentials of a given key only once the value is requested, through the configured credentials backend. The credentials are looked
+ * up across the given credentials stores in the given order. When the value is requested at execution time, only the parameters but
+ * not the decrypted value are stored in the configuration cache. The passphrases of the stores are given as providers of the Gradle properties, such that they are also only
+ * resolved once the value is requested and are never stored in the configuration cache.
+ */
+public abstract class CredentialsValueSource implements ValueSource<String, CredentialsValueSource.Parameters> {
+
+    public interface Parameters extends ValueSourceParameters {
+
+        Property<String> getKey();
+
+        Property<String> getBackend();
+
+        ListProperty<String> getPassphrases();
+
+        ListProperty<File> getCredentialsFiles();
+
+        Property<CredentialsBuildService> getCredentialsBuildService();
+
+    }
+
+    @Override
+    public String obtain() {
+        Parameters parameters = getParameters();
+        CredentialsBuildService credentialsBuildService = parameters.getCredentialsBuildService().get();
+        List<String> passphrases = parameters.getPassphrases().get();
+        List<File> credentialsFiles = parameters.getCredentialsFiles().get();
+        String key = parameters.getKey().get();
+
+        // look up the credentials across the given stores in the given order
+        for (int i = 0; i < passphrases.size(); i++) {
+            CredentialsBackend backend = credentialsBuildService.getBackend(parameters.getBackend().get(), passphrases.get(i), credentialsFiles.get(i));
+            if (backend.containsKey(key)) {
+                return decrypt(backend, key, credentialsBuildService);
+            }
+        }
+        return null;
+    }
+
+    private static String decrypt(CredentialsBackend backend, String key, CredentialsBuildService credentialsBuildService) {
+        long start = System.nanoTime();
+        char[] value = backend.get(key);
+        if (value == null) {
+            return null;
+        }
+        credentialsBuildService.getStatistics().recordDecryption(System.nanoTime() - start);
+        try {
+            return new String(value);
+        } finally {
+            Arrays.fill(value, '\0');
+        }
+    }
+
+}
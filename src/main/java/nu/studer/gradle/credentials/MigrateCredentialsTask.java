@@ -0,0 +1,58 @@
+package nu.studer.gradle.credentials;
+
+import nu.studer.gradle.credentials.domain.CredentialsFormat;
+import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
+import nu.studer.gradle.util.AlwaysFalseSpec;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.work.DisableCachingByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Converts the credentials file to the given format, specified as project property or task option. The credentials remain encrypted and unchanged.
+ */
+@DisableCachingByDefault
+public abstract class MigrateCredentialsTask extends DefaultTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MigrateCredentialsTask.class);
+
+    public MigrateCredentialsTask() {
+        setDescription("Converts the credentials file to the format specified through the project property 'credentialsFormat'.");
+        setGroup(CredentialsPlugin.GROUP);
+        getOutputs().upToDateWhen(AlwaysFalseSpec.INSTANCE);
+    }
+
+    @Option(option = "format", description = "The format to convert the credentials file to, either 'properties' or 'binary'.")
+    public void setFormat(String format) {
+        getCredentialsFormat().set(format);
+    }
+
+    @Internal
+    public abstract Property<String> getCredentialsFormat();
+
+    @OutputFile
+    public abstract RegularFileProperty getEncryptedPropertiesFile();
+
+    @TaskAction
+    void migrateCredentials() {
+        String format = getCredentialsFormat().getOrNull();
+        if (format == null) {
+            throw new IllegalArgumentException("Credentials format must not be null");
+        }
+
+        // convert the persisted credentials to the given format, without any concurrent update interfering
+        File file = getEncryptedPropertiesFile().get().getAsFile();
+        CredentialsFormat credentialsFormat = CredentialsFormat.forName(format);
+        LOGGER.debug(String.format("Convert credentials file to %s format: '%s'", credentialsFormat, file.getAbsolutePath()));
+        new CredentialsPersistenceManager(file).migrateCredentials(credentialsFormat);
+    }
+
+}
@@ -0,0 +1,86 @@
+package nu.studer.gradle.credentials;
+
+import nu.studer.gradle.credentials.domain.CredentialsEncryptor;
+import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
+import nu.studer.gradle.credentials.domain.KeyDerivation;
+import nu.studer.gradle.util.AlwaysFalseSpec;
+import nu.studer.java.util.OrderedProperties;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.work.DisableCachingByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Re-encrypts all credentials that are not yet encrypted in the current encryption format, e.g. credentials encrypted in the legacy format. Optionally, all credentials are
+ * re-encrypted with a new key derivation cost, specified as task option.
+ */
+@DisableCachingByDefault
+public abstract class ReencryptCredentialsTask extends DefaultTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReencryptCredentialsTask.class);
+
+    public ReencryptCredentialsTask() {
+        setDescription("Re-encrypts the credentials in the current encryption format.");
+        setGroup(CredentialsPlugin.GROUP);
+        getOutputs().upToDateWhen(AlwaysFalseSpec.INSTANCE);
+    }
+
+    @Option(option = "iterations", description = "The number of key derivation iterations to re-encrypt all credentials with.")
+    public void setIterations(String iterations) {
+        getKeyDerivationIterations().set(Integer.parseInt(iterations));
+    }
+
+    @Internal
+    public abstract Property<Integer> getKeyDerivationIterations();
+
+    @Internal("Do not annotate as @Input to avoid the passphrase being stored in the task artifact cache")
+    public abstract Property<String> getPassphrase();
+
+    @Internal
+    public abstract Property<CredentialsBuildService> getCredentialsBuildService();
+
+    @OutputFile
+    public abstract RegularFileProperty getEncryptedPropertiesFile();
+
+    @TaskAction
+    void reencryptCredentials() {
+        CredentialsEncryptor credentialsEncryptor = getCredentialsBuildService().get().getEncryptor(getPassphrase().get());
+
+        // re-encrypt the persisted credentials, without any concurrent update interfering
+        CredentialsPersistenceManager credentialsPersistenceManager = new CredentialsPersistenceManager(getEncryptedPropertiesFile().get().getAsFile());
+        credentialsPersistenceManager.updateCredentials(credentials -> {
+            List<String> encryptedValues = new ArrayList<>(credentials.size());
+            for (Map.Entry<String, String> entry : credentials.entrySet()) {
+                encryptedValues.add(entry.getValue());
+            }
+
+            // re-encrypt with a new key derivation if requested, otherwise with the key derivation that is already applied to the credentials file
+            CredentialsEncryptor targetEncryptor = getKeyDerivationIterations().isPresent()
+                ? credentialsEncryptor.withKeyDerivation(KeyDerivation.create(getKeyDerivationIterations().get()))
+                : credentialsEncryptor.forCredentials(encryptedValues);
+
+            // re-encrypt the credentials that are not current yet in parallel, the same way as when rotating the passphrase
+            OrderedProperties outdatedCredentials = new OrderedProperties();
+            for (Map.Entry<String, String> entry : credentials.entrySet()) {
+                if (!targetEncryptor.isCurrent(entry.getValue())) {
+                    outdatedCredentials.setProperty(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, String> entry : targetEncryptor.reencryptAll(outdatedCredentials, credentialsEncryptor).entrySet()) {
+                credentials.setProperty(entry.getKey(), entry.getValue());
+            }
+            LOGGER.info(String.format("Re-encrypted %d of %d credentials with %s", outdatedCredentials.size(), credentials.size(), targetEncryptor.getKeyDerivation()));
+        });
+    }
+
+}
@@ -1,34 +1,31 @@
 package nu.studer.gradle.credentials;
 
-import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
 import nu.studer.gradle.util.AlwaysFalseSpec;
-import nu.studer.java.util.OrderedProperties;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.options.Option;
 import org.gradle.work.DisableCachingByDefault;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
 import java.io.File;
 
 /**
- * Removes the given credentials, specified as project properties.
+ * Removes the given credentials, specified as project properties or task options. Any number of credentials can be removed at once through the keys listed in a file,
+ * in which case all credentials are removed in a single update of the credentials file. The credentials file is not written if none of the given credentials exist.
+ * <p>
+ * The credentials are removed by {@link RemoveCredentialsWorkAction} through the worker API.
  */
 @DisableCachingByDefault
-public class RemoveCredentialsTask extends DefaultTask {
+public abstract class RemoveCredentialsTask extends DefaultTask {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(RemoveCredentialsTask.class);
-
-    private final CredentialsPersistenceManager credentialsPersistenceManager;
-    private String key;
-
-    @Inject
-    public RemoveCredentialsTask(CredentialsPersistenceManager credentialsPersistenceManager) {
-        this.credentialsPersistenceManager = credentialsPersistenceManager;
+    public RemoveCredentialsTask() {
         setDescription("Removes the credentials specified through the project property 'credentialsKey'.");
         setGroup(CredentialsPlugin.GROUP);
         getOutputs().upToDateWhen(AlwaysFalseSpec.INSTANCE);
@@ -36,38 +33,49 @@ public class RemoveCredentialsTask extends DefaultTask {
 
     @Option(option = "key", description = "The credentials key.")
     public void setKey(String key) {
-        this.key = key;
-    }
-
-    @Internal("Do not annotate as @Input to avoid the key being stored in the task artifact cache")
-    public String getCredentialsKey() {
-        return key != null ? key : getProjectProperty(CredentialsPlugin.CREDENTIALS_KEY_PROPERTY);
+        getCredentialsKey().set(key);
     }
 
-    @OutputFile
-    public File getEncryptedPropertiesFile() {
-        return credentialsPersistenceManager.getCredentialsFile();
+    @Option(option = "from-file", description = "The file with the credentials keys to remove, one key per line.")
+    public void setFromFile(String path) {
+        getCredentialsSourceFile().set(getProject().file(path));
     }
 
-    @TaskAction
-    void removeCredentials() {
-        // get credentials key from the project properties
-        String key = getCredentialsKey();
+    @Internal("Do not annotate as @Input to avoid the key being stored in the task artifact cache")
+    public abstract Property<String> getCredentialsKey();
 
-        LOGGER.debug(String.format("Remove credentials with key: '%s'", key));
+    @Internal("Do not annotate as @InputFile to avoid the keys being fingerprinted in the task history")
+    public abstract RegularFileProperty getCredentialsSourceFile();
 
-        // read the current persisted credentials
-        OrderedProperties credentials = credentialsPersistenceManager.readCredentials();
+    @Input
+    @Optional
+    public abstract Property<Long> getJournalThreshold();
 
-        // remove the credentials with the given key
-        credentials.removeProperty(key);
+    @OutputFile
+    public abstract RegularFileProperty getEncryptedPropertiesFile();
 
-        // persist the updated credentials
-        credentialsPersistenceManager.storeCredentials(credentials);
-    }
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
 
-    private String getProjectProperty(String key) {
-        return (String) getProject().getProperties().get(key);
+    @TaskAction
+    void removeCredentials() {
+        // validate the credentials to remove, where the credentials key is optional if a file with the keys is given
+        if (getCredentialsSourceFile().isPresent()) {
+            File sourceFile = getCredentialsSourceFile().get().getAsFile();
+            if (!sourceFile.isFile()) {
+                throw new IllegalArgumentException("File with the credentials keys to remove does not exist: " + sourceFile.getAbsolutePath());
+            }
+        } else if (!getCredentialsKey().isPresent()) {
+            throw new IllegalArgumentException("Credentials key must not be null");
+        }
+
+        // remove the credentials in a work action, which Gradle waits for once the task action has returned
+        getWorkerExecutor().noIsolation().submit(RemoveCredentialsWorkAction.class, parameters -> {
+            parameters.getCredentialsKey().set(getCredentialsKey());
+            parameters.getCredentialsSourceFile().set(getCredentialsSourceFile());
+            parameters.getJournalThreshold().set(getJournalThreshold());
+            parameters.getEncryptedPropertiesFile().set(getEncryptedPropertiesFile());
+        });
     }
 
 }
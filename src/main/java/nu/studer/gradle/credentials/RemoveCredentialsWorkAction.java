@@ -0,0 +1,79 @@
+package nu.studer.gradle.credentials;
+
+import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes the credentials submitted by {@link RemoveCredentialsTask} from the credentials file.
+ */
+public abstract class RemoveCredentialsWorkAction implements WorkAction<RemoveCredentialsWorkAction.Parameters> {
+
+    public interface Parameters extends WorkParameters {
+
+        Property<String> getCredentialsKey();
+
+        RegularFileProperty getCredentialsSourceFile();
+
+        Property<Long> getJournalThreshold();
+
+        RegularFileProperty getEncryptedPropertiesFile();
+
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoveCredentialsWorkAction.class);
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        Map<String, String> changes = new LinkedHashMap<>();
+
+        // get credentials keys from the given file, one key per line, skipping blank lines
+        if (parameters.getCredentialsSourceFile().isPresent()) {
+            File sourceFile = parameters.getCredentialsSourceFile().get().getAsFile();
+            List<String> lines = readLines(sourceFile);
+            LOGGER.debug(String.format("Remove credentials listed in %d line(s) of file: '%s'", lines.size(), sourceFile.getAbsolutePath()));
+            for (String line : lines) {
+                String key = line.trim();
+                if (!key.isEmpty()) {
+                    changes.put(key, null);
+                }
+            }
+        }
+
+        // get credentials key from the command line or project properties
+        if (parameters.getCredentialsKey().isPresent()) {
+            String key = parameters.getCredentialsKey().get();
+            LOGGER.debug(String.format("Remove credentials with key: '%s'", key));
+            changes.put(key, null);
+        }
+
+        // remove the credentials with the given keys from the persisted credentials, without any concurrent update interfering, and without writing the file if no key exists
+        CredentialsPersistenceManager credentialsPersistenceManager = new CredentialsPersistenceManager(parameters.getEncryptedPropertiesFile().get().getAsFile(),
+            parameters.getJournalThreshold().getOrElse(0L));
+        int applied = credentialsPersistenceManager.updateCredentials(changes, String::equals);
+        LOGGER.debug(String.format("Applied %d of %d credentials changes", applied, changes.size()));
+    }
+
+    private static List<String> readLines(File file) {
+        try {
+            return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package nu.studer.gradle.credentials;
+
+import nu.studer.gradle.credentials.domain.CredentialsEncryptor;
+import nu.studer.gradle.credentials.domain.CredentialsPersistenceManager;
+import nu.studer.gradle.util.AlwaysFalseSpec;
+import nu.studer.java.util.OrderedProperties;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotates the passphrase of the credentials file to the new passphrase, specified as environment variable or Gradle property. All credentials are decrypted with the current
+ * passphrase and encrypted with the new passphrase in parallel, and are then stored in the credentials file of the new passphrase. The credentials file of the current passphrase
+ * is retired once the credentials file of the new passphrase has been written.
+ * <p>
+ * The new passphrase is only resolved when the task is executed, such that it is never stored in the configuration cache. Passed as environment variable, it does not show up
+ * in the arguments of the Gradle process either.
+ */
+@DisableCachingByDefault
+public abstract class RotateCredentialsTask extends DefaultTask {
+
+    public RotateCredentialsTask() {
+        setDescription("Rotates the passphrase of the credentials to the passphrase specified through the environment variable "
+            + "'GRADLE_CREDENTIALS_NEW_PASSPHRASE' or the Gradle property 'credentialsNewPassphrase'.");
+        setGroup(CredentialsPlugin.GROUP);
+        getOutputs().upToDateWhen(AlwaysFalseSpec.INSTANCE);
+    }
+
+    @Internal("Do not annotate as @Input to avoid the passphrase being stored in the task artifact cache")
+    public abstract Property<String> getPassphrase();
+
+    @Internal("Do not annotate as @Input to avoid the passphrase being stored in the task artifact cache")
+    public abstract Property<String> getNewCredentialsPassphrase();
+
+    @Internal
+    public abstract Property<CredentialsBuildService> getCredentialsBuildService();
+
+    @Internal("Do not annotate as @OutputFile since the file is retired by the rotation, and the credentials file of the new passphrase is only known at execution time")
+    public abstract RegularFileProperty getEncryptedPropertiesFile();
+
+    @TaskAction
+    void rotateCredentials() {
+        String newPassphrase = getNewCredentialsPassphrase().getOrNull();
+        if (newPassphrase == null) {
+            throw new IllegalArgumentException("New passphrase must not be null");
+        }
+        if (newPassphrase.equals(getPassphrase().get())) {
+            throw new IllegalArgumentException("New passphrase must differ from the current passphrase");
+        }
+
+        // the credentials file of the new passphrase is located next to the current credentials file
+        File file = getEncryptedPropertiesFile().get().getAsFile();
+        File newFile = new File(file.getAbsoluteFile().getParentFile(), CredentialsPlugin.deriveFileNameFromPassphrase(newPassphrase));
+        CredentialsEncryptor credentialsEncryptor = getCredentialsBuildService().get().getEncryptor(getPassphrase().get());
+        CredentialsEncryptor newCredentialsEncryptor = getCredentialsBuildService().get().getEncryptor(newPassphrase);
+
+        // re-encrypt all credentials with the new passphrase, without any concurrent update of either credentials file interfering
+        int[] count = new int[1];
+        long start = System.nanoTime();
+        File retiredFile = new CredentialsPersistenceManager(file).rotateCredentials(new CredentialsPersistenceManager(newFile), credentials -> {
+            OrderedProperties rotated = new OrderedProperties();
+            for (Map.Entry<String, String> entry : newCredentialsEncryptor.reencryptAll(credentials, credentialsEncryptor).entrySet()) {
+                rotated.setProperty(entry.getKey(), entry.getValue());
+            }
+            count[0] = rotated.size();
+            return rotated;
+        });
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        getLogger().lifecycle(String.format("Rotated %d credentials in %d ms (%.1f credentials/s) to: %s", count[0], millis, count[0] * 1000.0 / millis, newFile.getAbsolutePath()));
+        getLogger().lifecycle("Retired credentials file: " + retiredFile.getAbsolutePath());
+    }
+
+}
@@ -0,0 +1,168 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.gradle.util.Utf8;
+import org.gradle.api.UncheckedIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Backend that gets the decrypted credentials from a running {@link CredentialsAgent}. The keys of the credentials are fetched once when connecting to the agent, the values are
+ * fetched on demand. Each request first verifies that the agent knows the access token before presenting the token, such that a stale agent file never leaks the token to
+ * another process that listens on the published port.
+ */
+final class AgentCredentialsBackend implements CredentialsBackend {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentCredentialsBackend.class);
+
+    private final int port;
+    private final byte[] token;
+    private final Set<String> keys;
+
+    private AgentCredentialsBackend(int port, byte[] token, Set<String> keys) {
+        this.port = port;
+        this.token = token;
+        this.keys = keys;
+    }
+
+    /**
+     * Connects to the agent published in the given agent file.
+     *
+     * @param agentFile the agent file
+     * @return the backend connected to the agent, or null if the agent is not running
+     */
+    static AgentCredentialsBackend connect(File agentFile) {
+        if (!agentFile.isFile()) {
+            LOGGER.debug("Credentials agent file does not exist: " + agentFile.getAbsolutePath());
+            return null;
+        }
+
+        try {
+            // read the port and the access token of the agent
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(agentFile.toPath(), StandardCharsets.ISO_8859_1)) {
+                properties.load(reader);
+            }
+            int port = Integer.parseInt(properties.getProperty("port"));
+            byte[] token = parseHex(properties.getProperty("token"));
+
+            // fetch the keys of all credentials held by the agent
+            Set<String> keys = new HashSet<>();
+            try (Socket socket = open(port)) {
+                DataInputStream in = request(socket, token, CredentialsAgent.KEYS);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    keys.add(in.readUTF());
+                }
+            }
+            LOGGER.debug("Connected to credentials agent on port " + port + " holding " + keys.size() + " credentials");
+            return new AgentCredentialsBackend(port, token, Collections.unmodifiableSet(keys));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Cannot connect to credentials agent published in " + agentFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return keys.contains(key);
+    }
+
+    @Override
+    public char[] get(String key) {
+        if (!keys.contains(key)) {
+            return null;
+        }
+
+        try (Socket socket = open(port)) {
+            DataInputStream in = request(socket, token, CredentialsAgent.GET, key);
+            if (in == null) {
+                return null;
+            }
+
+            // decode the UTF-8 bytes of the value, overwriting the bytes once decoded
+            byte[] utf8 = new byte[in.readInt()];
+            try {
+                in.readFully(utf8);
+                return Utf8.decode(utf8);
+            } finally {
+                Arrays.fill(utf8, (byte) 0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot get credentials from credentials agent on port " + port, e);
+        }
+    }
+
+    private static Socket open(int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static DataInputStream request(Socket socket, byte[] token, byte command, String... arguments) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        // challenge the agent to prove that it knows the access token, and only then present the token
+        byte[] challenge = new byte[CredentialsAgent.CHALLENGE_LENGTH];
+        RANDOM.nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+        byte[] expectedResponse = CredentialsAgent.respond(token, challenge);
+        byte[] response = new byte[expectedResponse.length];
+        in.readFully(response);
+        if (!MessageDigest.isEqual(response, expectedResponse)) {
+            throw new IOException("Process listening on port " + socket.getPort() + " is not the credentials agent");
+        }
+
+        out.write(token);
+        out.writeByte(command);
+        for (String argument : arguments) {
+            out.writeUTF(argument);
+        }
+        out.flush();
+
+        // return the stream positioned at the payload of the response, or null if the requested credentials were not found
+        byte status = in.readByte();
+        if (status == CredentialsAgent.DENIED) {
+            throw new IOException("Access to credentials agent denied");
+        }
+        return status == CredentialsAgent.FOUND ? in : null;
+    }
+
+    private static byte[] parseHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,229 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.gradle.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Encryption/decryption of text using AES in Galois/Counter Mode (GCM), with a random nonce for each encryption. The encrypted text is self-describing: it consists of the
+ * {@link #PREFIX} followed by the Base64 encoding of a versioned header and the ciphertext:
+ * <pre>
+ * version (byte), cipher (byte), key derivation (byte), iterations (int), salt length (byte), salt, nonce length (byte), nonce, ciphertext including the authentication tag
+ * </pre>
+ * The header is authenticated along with the ciphertext, such that any tampering with the header or the ciphertext is detected on decryption. All values encrypted by the same
+ * instance share the same key derivation parameters, such that the secret key needs to be derived only once for all of them.
+ * <p>
+ * Instances are thread-safe. Since a {@link Cipher} must not be used by more than one thread at a time, each encryption/decryption borrows a cipher from a pool and returns it
+ * once done.
+ */
+public final class AuthenticatedEncryption {
+
+    /**
+     * The prefix that distinguishes values encrypted in this format from values encrypted in the legacy format of {@link Encryption}.
+     */
+    public static final String PREFIX = "v2:";
+
+    private static final byte VERSION = 2;
+    private static final byte CIPHER_AES_GCM = 1;
+    private static final byte KEY_DERIVATION_PBKDF2_SHA256 = 1;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeyDerivation keyDerivation;
+    private final SecretKey key;
+    private final Queue<Cipher> cipherPool = new ConcurrentLinkedQueue<>();
+
+    private AuthenticatedEncryption(KeyDerivation keyDerivation, SecretKey key) {
+        this.keyDerivation = keyDerivation;
+        this.key = key;
+    }
+
+    /**
+     * Creates a new instance from a secret key that has already been derived from a passphrase through the given key derivation.
+     *
+     * @param keyDerivation the key derivation parameters, stored in the header of each encrypted value
+     * @param derivedKey the bytes of the derived secret key
+     * @return the new instance
+     */
+    public static AuthenticatedEncryption create(KeyDerivation keyDerivation, byte[] derivedKey) {
+        return new AuthenticatedEncryption(keyDerivation, new SecretKeySpec(derivedKey, "AES"));
+    }
+
+    /**
+     * Returns whether the given text has been encrypted in this format.
+     *
+     * @param string the encrypted text
+     * @return true if the text has been encrypted in this format
+     */
+    public static boolean isEncrypted(String string) {
+        return string.startsWith(PREFIX);
+    }
+
+    /**
+     * Reads the key derivation parameters from the header of the given encrypted text.
+     *
+     * @param string the encrypted text
+     * @return the key derivation parameters to derive the secret key of the encrypted text
+     */
+    public static KeyDerivation keyDerivationOf(String string) {
+        return readHeader(decode(string)).keyDerivation;
+    }
+
+    public KeyDerivation getKeyDerivation() {
+        return keyDerivation;
+    }
+
+    /**
+     * Encrypts the given text.
+     *
+     * @param string the text to encrypt
+     * @return the encrypted text, including the header
+     */
+    public String encrypt(String string) {
+        byte[] plaintext = string.getBytes(StandardCharsets.UTF_8);
+        try {
+            return encrypt(ByteBuffer.wrap(plaintext));
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    /**
+     * Encrypts the remaining UTF-8 bytes of the given buffer, consuming them.
+     *
+     * @param plaintext the UTF-8 bytes of the text to encrypt
+     * @return the encrypted text, including the header
+     */
+    public String encrypt(ByteBuffer plaintext) {
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+            byte[] header = writeHeader(nonce);
+
+            // encrypt straight behind the header, such that neither the plaintext nor the ciphertext is copied
+            Cipher cipher = borrowCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, nonce));
+            cipher.updateAAD(header);
+            byte[] encrypted = Arrays.copyOf(header, header.length + cipher.getOutputSize(plaintext.remaining()));
+            int length = header.length + cipher.doFinal(plaintext, ByteBuffer.wrap(encrypted, header.length, encrypted.length - header.length));
+            cipherPool.offer(cipher);
+
+            // encode the prefix and the encrypted bytes into a single buffer
+            char[] chars = new char[PREFIX.length() + Base64.encodedLength(length)];
+            PREFIX.getChars(0, PREFIX.length(), chars, 0);
+            Base64.encodeBase64(encrypted, 0, length, chars, PREFIX.length());
+            return new String(chars);
+        } catch (Exception e) {
+            throw new RuntimeException("Encryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decrypts the given text. The text must have been encrypted with the same key derivation parameters as the ones of this instance.
+     *
+     * @param string the text to decrypt
+     * @return the decrypted text
+     */
+    public String decrypt(String string) {
+        byte[] plaintext = decryptBytes(string);
+        try {
+            return new String(plaintext, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts the given text to its UTF-8 bytes. The text must have been encrypted with the same key derivation parameters as the ones of this instance.
+     *
+     * @param string the text to decrypt
+     * @return the UTF-8 bytes of the decrypted text, to be wiped by the caller
+     */
+    byte[] decryptBytes(String string) {
+        try {
+            byte[] encrypted = decode(string);
+            Header header = readHeader(encrypted);
+            if (!header.keyDerivation.equals(keyDerivation)) {
+                throw new IllegalArgumentException("Encrypted with different key derivation parameters");
+            }
+
+            Cipher cipher = borrowCipher();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, header.nonce));
+            cipher.updateAAD(encrypted, 0, header.length);
+            byte[] plaintext = cipher.doFinal(encrypted, header.length, encrypted.length - header.length);
+            cipherPool.offer(cipher);
+            return plaintext;
+        } catch (Exception e) {
+            throw new RuntimeException("Decryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    private Cipher borrowCipher() throws GeneralSecurityException {
+        // borrow an idle cipher or create a new one if all ciphers are currently in use, the cipher is initialized with a new nonce for each use
+        Cipher cipher = cipherPool.poll();
+        return cipher != null ? cipher : Cipher.getInstance(TRANSFORMATION);
+    }
+
+    private byte[] writeHeader(byte[] nonce) {
+        byte[] salt = keyDerivation.getSalt();
+        ByteBuffer header = ByteBuffer.allocate(3 + Integer.BYTES + 1 + salt.length + 1 + nonce.length);
+        header.put(VERSION).put(CIPHER_AES_GCM).put(KEY_DERIVATION_PBKDF2_SHA256).putInt(keyDerivation.getIterations());
+        header.put((byte) salt.length).put(salt);
+        header.put((byte) nonce.length).put(nonce);
+        return header.array();
+    }
+
+    private static byte[] decode(String string) {
+        if (!isEncrypted(string)) {
+            throw new IllegalArgumentException("Not encrypted in version " + VERSION + " format");
+        }
+        return Base64.decodeBase64(string, PREFIX.length(), string.length());
+    }
+
+    private static Header readHeader(byte[] encrypted) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(encrypted);
+            byte version = buffer.get();
+            byte cipher = buffer.get();
+            byte keyDerivation = buffer.get();
+            if (version != VERSION || cipher != CIPHER_AES_GCM || keyDerivation != KEY_DERIVATION_PBKDF2_SHA256) {
+                throw new IllegalArgumentException(String.format("Unsupported encryption format: version %d, cipher %d, key derivation %d", version, cipher, keyDerivation));
+            }
+            int iterations = buffer.getInt();
+            byte[] salt = new byte[buffer.get()];
+            buffer.get(salt);
+            byte[] nonce = new byte[buffer.get()];
+            buffer.get(nonce);
+            return new Header(KeyDerivation.pbkdf2(iterations, salt), nonce, buffer.position());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid encryption header: " + e.getMessage(), e);
+        }
+    }
+
+    private static final class Header {
+
+        private final KeyDerivation keyDerivation;
+        private final byte[] nonce;
+        private final int length;
+
+        private Header(KeyDerivation keyDerivation, byte[] nonce, int length) {
+            this.keyDerivation = keyDerivation;
+            this.nonce = nonce;
+            this.length = length;
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.java.util.OrderedProperties;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reads and writes credentials in the compact binary format. The file starts with a header, followed by an index of hash slots, followed by the entries in insertion order:
+ * <pre>
+ * header: magic (NUL followed by "GCR"), version (int), number of entries (int), number of slots (int)
+ * index:  for each slot, the hash of the key (int) and the offset of the entry in the file (int), where an offset of 0 marks an empty slot
+ * data:   for each entry, the length of the key (int), the UTF-8 bytes of the key, the length of the value (int), the UTF-8 bytes of the value
+ * </pre>
+ * The number of slots is a power of two and at least twice the number of entries. Keys are placed through open addressing with linear probing, such that the entry of a given
+ * key is found by reading only a few slots of the index and comparing only the keys of entries with the same hash. The header is validated against the size of the file when the
+ * file is read, such that a corrupt file fails rather than sending a lookup into an endless probe.
+ */
+final class BinaryCredentials extends AbstractMap<String, String> {
+
+    // starts with a NUL byte, which a credentials file in properties format never starts with, even if its first key starts with the remaining bytes of the magic
+    static final byte[] MAGIC = {0, 'G', 'C', 'R'};
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = MAGIC.length + 3 * Integer.BYTES;
+    private static final int SLOT_SIZE = 2 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int slots;
+
+    private BinaryCredentials(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not a binary credentials file");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                throw new IllegalArgumentException("Not a binary credentials file");
+            }
+        }
+        int version = buffer.getInt(MAGIC.length);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported version of binary credentials file: " + version);
+        }
+        this.size = buffer.getInt(MAGIC.length + Integer.BYTES);
+        this.slots = buffer.getInt(MAGIC.length + 2 * Integer.BYTES);
+
+        // a valid index has a power of two number of slots that fits into the file, with at least one empty slot to end each probe
+        if (slots <= 0 || Integer.bitCount(slots) != 1 || HEADER_SIZE + (long) slots * SLOT_SIZE > buffer.limit() || size < 0 || size >= slots) {
+            throw new IllegalArgumentException("Corrupt binary credentials file: " + size + " entries, " + slots + " slots, " + buffer.limit() + " bytes");
+        }
+    }
+
+    /**
+     * Reads the given binary credentials file, see {@link FileBuffers#read(File)}. The returned map is read-only and reads the entries directly from the buffer.
+     *
+     * @param file the binary credentials file
+     * @return the read-only map of the encrypted credentials
+     */
+    static BinaryCredentials read(File file) {
+        return new BinaryCredentials(FileBuffers.read(file));
+    }
+
+    /**
+     * Writes the given credentials in binary format to the given output stream.
+     *
+     * @param credentials the encrypted credentials
+     * @param outputStream the output stream to write to
+     * @throws IOException if writing fails
+     */
+    static void write(OrderedProperties credentials, OutputStream outputStream) throws IOException {
+        List<byte[]> keys = new ArrayList<>(credentials.size());
+        List<byte[]> values = new ArrayList<>(credentials.size());
+        for (Map.Entry<String, String> entry : credentials.entrySet()) {
+            keys.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            values.add(entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // place each entry in the first free slot starting from the slot of its hash
+        int slots = slotsFor(keys.size());
+        int[] hashes = new int[slots];
+        int[] offsets = new int[slots];
+        long offset = HEADER_SIZE + (long) slots * SLOT_SIZE;
+        for (int i = 0; i < keys.size(); i++) {
+            int hash = hash(keys.get(i));
+            int slot = hash & (slots - 1);
+            while (offsets[slot] != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            hashes[slot] = hash;
+            offsets[slot] = (int) offset;
+            offset += 2 * Integer.BYTES + keys.get(i).length + values.get(i).length;
+            if (offset > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Credentials are too large for the binary format");
+            }
+        }
+
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.write(MAGIC);
+        dataOutputStream.writeInt(VERSION);
+        dataOutputStream.writeInt(keys.size());
+        dataOutputStream.writeInt(slots);
+        for (int slot = 0; slot < slots; slot++) {
+            dataOutputStream.writeInt(hashes[slot]);
+            dataOutputStream.writeInt(offsets[slot]);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            dataOutputStream.writeInt(keys.get(i).length);
+            dataOutputStream.write(keys.get(i));
+            dataOutputStream.writeInt(values.get(i).length);
+            dataOutputStream.write(values.get(i));
+        }
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Copies all entries into a new ordered properties instance, in the order in which they were written.
+     *
+     * @param credentials the ordered properties to add the entries to
+     */
+    void copyTo(OrderedProperties credentials) {
+        for (Map.Entry<String, String> entry : entrySet()) {
+            credentials.setProperty(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && find((String) key) != 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int offset = find((String) key);
+        if (offset == 0) {
+            return null;
+        }
+        int keyLength = buffer.getInt(offset);
+        return readString(offset + Integer.BYTES + keyLength);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+
+                    private int remaining = size;
+                    private int offset = HEADER_SIZE + slots * SLOT_SIZE;
+
+                    @Override
+                    public boolean hasNext() {
+                        return remaining > 0;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (remaining == 0) {
+                            throw new NoSuchElementException();
+                        }
+                        String key = readString(offset);
+                        offset += Integer.BYTES + buffer.getInt(offset);
+                        String value = readString(offset);
+                        offset += Integer.BYTES + buffer.getInt(offset);
+                        remaining--;
+                        return new SimpleImmutableEntry<>(key, value);
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private int find(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        int slot = hash & (slots - 1);
+
+        // probe each slot at most once, such that a corrupt index without empty slots cannot make the lookup loop forever
+        for (int probe = 0; probe < slots; probe++) {
+            int slotPosition = HEADER_SIZE + slot * SLOT_SIZE;
+            int offset = buffer.getInt(slotPosition + Integer.BYTES);
+            if (offset == 0) {
+                return 0;
+            }
+            if (buffer.getInt(slotPosition) == hash && keyEquals(offset, keyBytes)) {
+                return offset;
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+        return 0;
+    }
+
+    private boolean keyEquals(int offset, byte[] keyBytes) {
+        if (offset < HEADER_SIZE + slots * SLOT_SIZE || offset > buffer.limit() - Integer.BYTES) {
+            throw new IllegalArgumentException("Corrupt binary credentials file: entry offset " + offset + " out of bounds");
+        }
+        if (buffer.getInt(offset) != keyBytes.length || offset + Integer.BYTES + keyBytes.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(offset + Integer.BYTES + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString(int offset) {
+        // read through a duplicate, such that concurrent readers do not interfere through the position of the shared buffer
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset + Integer.BYTES);
+        duplicate.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int slotsFor(int entries) {
+        int slots = 2;
+        while (slots < 2 * entries) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    private static int hash(byte[] bytes) {
+        // FNV-1a, such that the hash does not depend on the JVM that wrote the file
+        int hash = 0x811c9dc5;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,353 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.gradle.credentials.CredentialsPlugin;
+import nu.studer.gradle.util.Base64;
+import nu.studer.gradle.util.Utf8;
+import org.gradle.api.UncheckedIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.Console;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived process that holds the decrypted credentials of a credentials file in memory and serves them to builds that use the {@value CredentialsBackends#AGENT} backend.
+ * Builds served by the agent neither derive the secret key nor read the credentials file. The agent decrypts the credentials file again whenever it has changed.
+ * <p>
+ * The agent listens on a random port of the loopback interface. Its port and a random access token are published in the agent file next to the credentials file, which is only
+ * accessible by its owner, see {@link FilePermissions#createOwnerOnlyFile(Path)}. The agent refuses to start if the access cannot be restricted. Each request must present the
+ * access token. The agent file is deleted when the agent is closed. Each connection is served on its own thread, such that a client that stalls does not delay other builds.
+ * <p>
+ * Before presenting the access token, a client challenges the agent with a random nonce, which the agent answers with the HMAC-SHA256 of the nonce keyed by the access token.
+ * Thus, a client never sends the access token to a process that took over the port of an agent that stopped without deleting its agent file.
+ * <p>
+ * The agent is started through its main method, passing the path of the credentials file as argument and the passphrase through the
+ * {@value #PASSPHRASE_ENV_VARIABLE} environment variable or, if not set, through the console. The plugin jar and its dependencies must be on the classpath.
+ */
+public final class CredentialsAgent implements Closeable {
+
+    public static final String PASSPHRASE_ENV_VARIABLE = "GRADLE_CREDENTIALS_PASSPHRASE";
+
+    static final byte KEYS = 1;
+    static final byte GET = 2;
+    static final byte FOUND = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte DENIED = 2;
+
+    private static final String AGENT_FILE_SUFFIX = ".agent";
+    private static final int TOKEN_LENGTH = 32;
+    static final int CHALLENGE_LENGTH = 16;
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsAgent.class);
+
+    private final CredentialsPersistenceManager credentialsPersistenceManager;
+    private final CredentialsEncryptor credentialsEncryptor;
+    private final ServerSocket serverSocket;
+    private final byte[] token;
+    private final File agentFile;
+    private final ExecutorService connectionExecutor;
+    private CredentialsSnapshot snapshot;
+    private Map<String, char[]> credentials = new HashMap<>();
+
+    private CredentialsAgent(CredentialsPersistenceManager credentialsPersistenceManager, CredentialsEncryptor credentialsEncryptor, ServerSocket serverSocket, byte[] token,
+                             File agentFile) {
+        this.credentialsPersistenceManager = credentialsPersistenceManager;
+        this.credentialsEncryptor = credentialsEncryptor;
+        this.serverSocket = serverSocket;
+        this.token = token;
+        this.agentFile = agentFile;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.connectionExecutor = Executors.newCachedThreadPool((Runnable runnable) -> {
+            Thread thread = new Thread(runnable, "credentials-agent-connection-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts an agent in the current process that serves the credentials of the given credentials file until it is closed.
+     *
+     * @param credentialsFile the credentials file to serve
+     * @param passphrase the passphrase to decrypt the credentials with
+     * @return the running agent
+     */
+    public static CredentialsAgent start(File credentialsFile, char[] passphrase) {
+        byte[] token = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(token);
+        try {
+            ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            CredentialsAgent agent = new CredentialsAgent(new CredentialsPersistenceManager(credentialsFile), CredentialsEncryptor.withPassphrase(passphrase), serverSocket, token,
+                agentFile(credentialsFile));
+            agent.reloadIfChanged();
+            try {
+                agent.publish();
+            } catch (IOException | UnsupportedOperationException e) {
+                serverSocket.close();
+                throw e;
+            }
+
+            Thread thread = new Thread(agent::serve, "credentials-agent");
+            thread.setDaemon(true);
+            thread.start();
+            LOGGER.info("Credentials agent for " + credentialsFile.getAbsolutePath() + " listens on port " + serverSocket.getLocalPort());
+            return agent;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start credentials agent", e);
+        }
+    }
+
+    /**
+     * Returns the agent file that publishes the port and access token of the agent of the given credentials file.
+     *
+     * @param credentialsFile the credentials file
+     * @return the agent file
+     */
+    public static File agentFile(File credentialsFile) {
+        return new File(credentialsFile.getAbsolutePath() + AGENT_FILE_SUFFIX);
+    }
+
+    public File getAgentFile() {
+        return agentFile;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            serverSocket.close();
+            connectionExecutor.shutdownNow();
+            Files.deleteIfExists(agentFile.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            wipe(credentials);
+            credentials = new HashMap<>();
+        }
+    }
+
+    private void publish() throws IOException {
+        // write the agent file with owner-only permissions, then move it in place such that clients never see a partially written agent file
+        Properties properties = new Properties();
+        properties.setProperty("port", Integer.toString(serverSocket.getLocalPort()));
+        properties.setProperty("token", Base64.printHexBinary(token));
+
+        Path tempFile = agentFile.toPath().resolveSibling(agentFile.getName() + ".tmp");
+        Files.deleteIfExists(tempFile);
+        FilePermissions.createOwnerOnlyFile(tempFile);
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.ISO_8859_1)) {
+            properties.store(writer, "Credentials agent of " + credentialsPersistenceManager.getCredentialsFile().getAbsolutePath());
+        }
+        Files.move(tempFile, agentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void serve() {
+        // accept the connections and serve one request per connection on its own thread, such that a client that stalls until the timeout does not block other clients
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.warn("Credentials agent failed to accept a connection", e);
+                }
+                continue;
+            } catch (IOException e) {
+                LOGGER.warn("Credentials agent failed to accept a connection", e);
+                continue;
+            }
+
+            try {
+                connectionExecutor.execute(() -> serve(socket));
+            } catch (RuntimeException e) {
+                closeQuietly(socket);
+                if (!serverSocket.isClosed()) {
+                    LOGGER.warn("Credentials agent failed to serve a connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setSoTimeout(TIMEOUT_MILLIS);
+            handle(s);
+        } catch (IOException | RuntimeException e) {
+            if (!serverSocket.isClosed()) {
+                LOGGER.warn("Credentials agent request failed", e);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.debug("Cannot close credentials agent connection", e);
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        // prove the knowledge of the access token before the client presents it
+        byte[] challenge = new byte[CHALLENGE_LENGTH];
+        in.readFully(challenge);
+        out.write(respond(token, challenge));
+        out.flush();
+
+        byte[] presentedToken = new byte[TOKEN_LENGTH];
+        in.readFully(presentedToken);
+        byte command = in.readByte();
+        if (!MessageDigest.isEqual(presentedToken, token)) {
+            out.writeByte(DENIED);
+        } else if (command == KEYS) {
+            String[] keys = keys();
+            out.writeByte(FOUND);
+            out.writeInt(keys.length);
+            for (String key : keys) {
+                out.writeUTF(key);
+            }
+        } else if (command == GET) {
+            String key = in.readUTF();
+            char[] value = get(key);
+            try {
+                writeValue(value, out);
+            } finally {
+                if (value != null) {
+                    Arrays.fill(value, '\0');
+                }
+            }
+        } else {
+            throw new IOException("Unknown credentials agent command: " + command);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the response of the agent with the given access token to the given challenge.
+     *
+     * @param token the access token
+     * @param challenge the random challenge of the client
+     * @return the HMAC-SHA256 of the challenge keyed by the access token
+     */
+    static byte[] respond(byte[] token, byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(token, "HmacSHA256"));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeValue(char[] value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NOT_FOUND);
+            return;
+        }
+
+        // write the UTF-8 bytes of the value prefixed by their length, overwriting the bytes once written
+        byte[] utf8 = Utf8.encode(value);
+        try {
+            out.writeByte(FOUND);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        } finally {
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    private synchronized String[] keys() {
+        return reloadIfChanged().keySet().toArray(new String[0]);
+    }
+
+    private synchronized char[] get(String key) {
+        // copy the value while holding the lock since a reload on another connection wipes the previously decrypted credentials
+        char[] value = reloadIfChanged().get(key);
+        return value != null ? value.clone() : null;
+    }
+
+    private synchronized Map<String, char[]> reloadIfChanged() {
+        if (snapshot != null && snapshot.isUpToDate(credentialsPersistenceManager.getCredentialsFile())) {
+            return credentials;
+        }
+
+        // decrypt all credentials of the changed file, replacing and wiping the previously decrypted credentials
+        CredentialsSnapshot newSnapshot = credentialsPersistenceManager.readSnapshot();
+        Map<String, char[]> newCredentials = new HashMap<>();
+        for (String key : newSnapshot.keySet()) {
+            newCredentials.put(key, credentialsEncryptor.decryptToChars(newSnapshot.get(key)));
+        }
+        LOGGER.debug("Credentials agent decrypted " + newCredentials.size() + " credentials");
+        wipe(credentials);
+        snapshot = newSnapshot;
+        credentials = newCredentials;
+        return newCredentials;
+    }
+
+    private static void wipe(Map<String, char[]> credentials) {
+        for (char[] value : credentials.values()) {
+            Arrays.fill(value, '\0');
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: CredentialsAgent <credentials file>");
+            System.exit(1);
+        }
+
+        // read the passphrase from the environment or from the console
+        String passphraseVariable = System.getenv(PASSPHRASE_ENV_VARIABLE);
+        char[] passphrase;
+        if (passphraseVariable != null) {
+            passphrase = passphraseVariable.toCharArray();
+        } else {
+            Console console = System.console();
+            if (console == null) {
+                System.err.println("No console available, pass the passphrase through the " + PASSPHRASE_ENV_VARIABLE + " environment variable");
+                System.exit(1);
+                return;
+            }
+            passphrase = console.readPassword("Passphrase (leave empty for the default passphrase): ");
+            if (passphrase == null || passphrase.length == 0) {
+                passphrase = CredentialsPlugin.DEFAULT_PASSPHRASE.toCharArray();
+            }
+        }
+
+        CredentialsAgent agent = start(new File(args[0]), passphrase);
+        Arrays.fill(passphrase, '\0');
+        Runtime.getRuntime().addShutdownHook(new Thread(agent::close));
+        System.out.println("Credentials agent listens on port " + agent.serverSocket.getLocalPort() + ", published in " + agent.agentFile.getAbsolutePath());
+        Thread.currentThread().join();
+    }
+
+}
@@ -0,0 +1,73 @@
+package nu.studer.gradle.credentials.domain;
+
+import java.io.File;
+
+/**
+ * The source of the decrypted credentials of a credentials container. The backend of a build is selected by name through the 'credentialsBackend' project property, see
+ * {@link CredentialsBackends}.
+ * <p>
+ * Additional backends can be contributed through a {@link Factory} that is registered as a service provider in
+ * <code>META-INF/services/nu.studer.gradle.credentials.domain.CredentialsBackend$Factory</code> and is available on the same classpath as the credentials plugin.
+ */
+public interface CredentialsBackend {
+
+    /**
+     * Returns whether there are credentials with the given key.
+     *
+     * @param key the key of the credentials
+     * @return true if there are credentials with the given key
+     */
+    boolean containsKey(String key);
+
+    /**
+     * Returns the decrypted characters of the credentials with the given key.
+     *
+     * @param key the key of the credentials
+     * @return the decrypted characters, to be wiped by the caller once no longer needed, or null if there are no credentials with the given key
+     */
+    char[] get(String key);
+
+    /**
+     * Returns a token that identifies the stored value of the credentials with the given key, compared by equality. Decrypted credentials that are memoized by a credentials
+     * container remain valid as long as the token of their key does not change. By default, the stored credentials of a backend never change and the token is always null.
+     *
+     * @param key the key of the credentials
+     * @return the token of the stored value, or null if the stored value never changes or there are no credentials with the given key
+     */
+    default Object versionOf(String key) {
+        return null;
+    }
+
+    /**
+     * Creates the backend with a given name.
+     */
+    interface Factory {
+
+        String getName();
+
+        CredentialsBackend create(Context context);
+
+    }
+
+    /**
+     * The credentials store that a backend is created for.
+     */
+    interface Context {
+
+        /**
+         * Returns the credentials file of the configured passphrase and location.
+         *
+         * @return the credentials file
+         */
+        File getCredentialsFile();
+
+        /**
+         * Returns the backend that reads and decrypts the credentials file. The credentials file is only read when this method is called.
+         *
+         * @return the backend of the credentials file
+         */
+        CredentialsBackend getFileBackend();
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the {@link CredentialsBackend backends} by name. The built-in backends are:
+ * <ul>
+ * <li>{@value #FILE}: reads and decrypts the credentials file of the build, the default</li>
+ * <li>{@value #AGENT}: gets the credentials from a running {@link CredentialsAgent}, falling back to the credentials file if no agent is running</li>
+ * </ul>
+ */
+public final class CredentialsBackends {
+
+    public static final String FILE = "file";
+    public static final String AGENT = "agent";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsBackends.class);
+
+    private CredentialsBackends() {
+    }
+
+    /**
+     * Returns the factory of the backend with the given name, looking up the built-in backends first and the registered service providers second.
+     *
+     * @param name the name of the backend
+     * @return the factory of the backend
+     */
+    public static CredentialsBackend.Factory forName(String name) {
+        List<String> names = new ArrayList<>();
+        for (CredentialsBackend.Factory factory : factories()) {
+            if (factory.getName().equals(name)) {
+                return factory;
+            }
+            names.add(factory.getName());
+        }
+        throw new IllegalArgumentException("Unknown credentials backend: " + name + ", supported backends: " + names);
+    }
+
+    /**
+     * Returns a backend that creates the given backend on first access, such that e.g. the passphrase of a credentials store is only resolved once credentials of the store are
+     * looked up.
+     *
+     * @param backend the supplier of the backend, called at most once
+     * @return the lazily created backend
+     */
+    public static CredentialsBackend lazy(Supplier<CredentialsBackend> backend) {
+        return new LazyBackend(backend);
+    }
+
+    private static List<CredentialsBackend.Factory> factories() {
+        List<CredentialsBackend.Factory> factories = new ArrayList<>();
+        factories.add(new BuiltInFactory(FILE));
+        factories.add(new BuiltInFactory(AGENT));
+        for (CredentialsBackend.Factory factory : ServiceLoader.load(CredentialsBackend.Factory.class, CredentialsBackends.class.getClassLoader())) {
+            factories.add(factory);
+        }
+        return factories;
+    }
+
+    private static final class BuiltInFactory implements CredentialsBackend.Factory {
+
+        private final String name;
+
+        private BuiltInFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public CredentialsBackend create(CredentialsBackend.Context context) {
+            if (name.equals(AGENT)) {
+                CredentialsBackend agentBackend = AgentCredentialsBackend.connect(CredentialsAgent.agentFile(context.getCredentialsFile()));
+                if (agentBackend != null) {
+                    return agentBackend;
+                }
+                LOGGER.warn("No credentials agent is running for " + context.getCredentialsFile().getAbsolutePath() + ", reading the credentials file instead");
+            }
+            return context.getFileBackend();
+        }
+
+    }
+
+    private static final class LazyBackend implements CredentialsBackend {
+
+        private final Supplier<CredentialsBackend> supplier;
+        private volatile CredentialsBackend backend;
+
+        private LazyBackend(Supplier<CredentialsBackend> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public boolean containsKey(String key) {
+            return backend().containsKey(key);
+        }
+
+        @Override
+        public char[] get(String key) {
+            return backend().get(key);
+        }
+
+        @Override
+        public Object versionOf(String key) {
+            return backend().versionOf(key);
+        }
+
+        private CredentialsBackend backend() {
+            CredentialsBackend result = backend;
+            if (result == null) {
+                synchronized (this) {
+                    if (backend == null) {
+                        backend = supplier.get();
+                    }
+                    result = backend;
+                }
+            }
+            return result;
+        }
+
+    }
+
+}
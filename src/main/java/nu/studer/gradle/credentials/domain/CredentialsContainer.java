@@ -1,25 +1,328 @@
 package nu.studer.gradle.credentials.domain;
 
 import nu.studer.java.util.OrderedProperties;
+import org.gradle.api.provider.Provider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Transiently retrieves and adds credentials.
+ * <p>
+ * Credentials are retrieved from a {@link CredentialsBackend}, by default from the credentials file. Credentials are decrypted lazily on first access and memoized as character
+ * arrays for subsequent accesses. Credentials that are never accessed are never decrypted. The memoized credentials can be wiped through {@link #wipe()}. If the backend reports
+ * that the stored value of memoized credentials has changed, see {@link CredentialsBackend#versionOf(String)}, only those credentials are decrypted again.
+ * <p>
+ * Hot paths that must not materialize credentials as immutable strings can access the decrypted characters through {@link #forKeyChars(String)} or
+ * {@link #secretForKey(String)} instead of {@link #forKey(String)}.
+ * <p>
+ * If several credentials stores are mounted, see {@link #withStores(Map, Function)}, the credentials are looked up across the containers of the stores in the configured order,
+ * while the credentials of a single store are accessed through the container returned by {@link #forStore(String)}. The credentials are memoized only by the container of
+ * the store that holds them. Since the secret key of a store is only derived once credentials of the store are decrypted, no key is derived for stores whose credentials are
+ * never accessed.
+ * <p>
+ * Credentials that a build is known to need can be decrypted ahead of their first access through {@link #prefetch(String...)}, in the background while the build continues.
+ * <p>
+ * Credentials can also be accessed lazily through {@link #provider(String)}, which defers reading and decrypting the credentials until the provider is queried.
  */
 public final class CredentialsContainer {
 
-    private final CredentialsEncryptor credentialsEncryptor;
-    private final OrderedProperties credentials;
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsContainer.class);
+
+    private final CredentialsBackend credentials;
+    private final Function<String, Provider<String>> lazyCredentials;
+    private final CredentialsStatistics statistics;
+    private final Map<String, CredentialsContainer> stores;
+    private final Executor prefetchExecutor;
+    private final ConcurrentMap<String, FutureTask<Decrypted>> decryptedCredentials = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
 
     public CredentialsContainer(CredentialsEncryptor credentialsEncryptor, OrderedProperties initialCredentials) {
-        this.credentialsEncryptor = credentialsEncryptor;
-        this.credentials = OrderedProperties.copyOf(initialCredentials);
+        this(new FileCredentialsBackend(credentialsEncryptor, CredentialsSnapshot.of(initialCredentials)), null, new CredentialsStatistics());
+    }
+
+    CredentialsContainer(CredentialsBackend credentials, Function<String, Provider<String>> lazyCredentials, CredentialsStatistics statistics) {
+        this(credentials, lazyCredentials, statistics, Runnable::run);
+    }
+
+    CredentialsContainer(CredentialsBackend credentials, Function<String, Provider<String>> lazyCredentials, CredentialsStatistics statistics, Executor prefetchExecutor) {
+        this(credentials, lazyCredentials, statistics, Collections.emptyMap(), prefetchExecutor);
+    }
+
+    private CredentialsContainer(CredentialsBackend credentials, Function<String, Provider<String>> lazyCredentials, CredentialsStatistics statistics,
+                                 Map<String, CredentialsContainer> stores, Executor prefetchExecutor) {
+        this.credentials = credentials;
+        this.lazyCredentials = lazyCredentials;
+        this.statistics = statistics;
+        this.stores = new LinkedHashMap<>(stores);
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * Creates a container that retrieves credentials from the given backend.
+     *
+     * @param credentials the backend of the credentials
+     * @param lazyCredentials the function that creates a provider of the credentials with a given key, or null if lazy access is not supported
+     * @param statistics the statistics to record the decryptions and cache hits in
+     * @param prefetchExecutor the executor to decrypt prefetched credentials on
+     * @return the new container
+     */
+    public static CredentialsContainer withBackend(CredentialsBackend credentials, Function<String, Provider<String>> lazyCredentials, CredentialsStatistics statistics,
+                                                   Executor prefetchExecutor) {
+        return new CredentialsContainer(credentials, lazyCredentials, statistics, prefetchExecutor);
+    }
+
+    /**
+     * Creates a container that looks up credentials across the containers of the given stores, in the order of the given map, and that does not memoize any credentials
+     * itself.
+     *
+     * @param stores the containers of the stores by the name of the store
+     * @param lazyCredentials the function that creates a provider of the credentials with a given key, looked up across all stores
+     * @return the new container
+     */
+    public static CredentialsContainer withStores(Map<String, CredentialsContainer> stores, Function<String, Provider<String>> lazyCredentials) {
+        if (stores.isEmpty()) {
+            throw new IllegalArgumentException("At least one credentials store must be mounted");
+        }
+        return new CredentialsContainer(null, lazyCredentials, null, stores, null);
     }
 
     public String forKey(String name) {
-        if (credentials.containsProperty(name)) {
-            return credentialsEncryptor.decrypt(credentials.getProperty(name));
-        } else {
+        CredentialsContainer container = containerOf(name);
+        char[] decrypted = container != null ? container.decrypted(name) : null;
+        return decrypted != null ? new String(decrypted) : null;
+    }
+
+    /**
+     * Returns a copy of the decrypted characters of the credentials with the given key. Unlike {@link #forKey(String)}, no immutable copy of the credentials is created, such
+     * that the caller can wipe the returned array once done.
+     *
+     * @param name the key of the credentials
+     * @return the decrypted characters, or null if there are no credentials with the given key
+     */
+    public char[] forKeyChars(String name) {
+        CredentialsContainer container = containerOf(name);
+        char[] decrypted = container != null ? container.decrypted(name) : null;
+        return decrypted != null ? decrypted.clone() : null;
+    }
+
+    /**
+     * Returns a handle to the credentials with the given key that grants scoped access to the decrypted characters without copying them. The credentials are decrypted only
+     * when the handle is used. Using the handle fails if the credentials have been removed from the backend in the meantime.
+     *
+     * @param name the key of the credentials
+     * @return the handle to the decrypted credentials, or null if there are no credentials with the given key
+     */
+    public SecretValue secretForKey(String name) {
+        CredentialsContainer container = containerOf(name);
+        return container != null ? new SecretValue(() -> {
+            char[] decrypted = container.decrypted(name);
+            if (decrypted == null) {
+                throw new IllegalStateException("Credentials with key " + name + " no longer exist");
+            }
+            return decrypted;
+        }) : null;
+    }
+
+    /**
+     * Decrypts the credentials with the given keys in the background, such that they are already decrypted when they are accessed. An access to credentials that are still
+     * being decrypted blocks until the decryption has completed, while keys without credentials are ignored. A failure to decrypt credentials in the background is not
+     * reported until the credentials are accessed.
+     *
+     * @param names the keys of the credentials to decrypt
+     */
+    public void prefetch(String... names) {
+        for (String name : names) {
+            CredentialsContainer container = containerOf(name);
+            if (container != null && !container.decryptedCredentials.containsKey(name)) {
+                container.prefetchExecutor.execute(() -> {
+                    try {
+                        container.await(name, container.decryption(name));
+                    } catch (RuntimeException e) {
+                        LOGGER.debug("Could not prefetch credentials with key: " + name, e);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Returns a provider of the credentials with the given key. The credentials are read and decrypted only when the provider is queried, such that the provider can be used
+     * as a task input without the decrypted credentials being stored in the configuration cache.
+     *
+     * @param name the key of the credentials
+     * @return the provider of the decrypted credentials, without a value if there are no credentials with the given key
+     */
+    public Provider<String> provider(String name) {
+        if (lazyCredentials == null) {
+            throw new IllegalStateException("Lazy access to credentials is not supported by this credentials container");
+        }
+        return lazyCredentials.apply(name);
+    }
+
+    /**
+     * Returns the container that only accesses the credentials of the mounted store with the given name, without falling back to any other store.
+     *
+     * @param name the name of the store
+     * @return the container of the store
+     */
+    public CredentialsContainer forStore(String name) {
+        CredentialsContainer store = stores.get(name);
+        if (store == null) {
+            throw new IllegalArgumentException("Unknown credentials store: " + name + ", mounted stores: " + stores.keySet());
+        }
+        return store;
+    }
+
+    /**
+     * Returns the number of accesses that were served from the already decrypted credentials.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.sum() + stores.values().stream().mapToLong(CredentialsContainer::getCacheHits).sum();
+    }
+
+    /**
+     * Returns the number of accesses that required the credentials to be decrypted.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses.sum() + stores.values().stream().mapToLong(CredentialsContainer::getCacheMisses).sum();
+    }
+
+    /**
+     * Overwrites and discards all memoized decrypted credentials. Subsequent accesses decrypt the credentials again.
+     */
+    public void wipe() {
+        for (CredentialsContainer store : stores.values()) {
+            store.wipe();
+        }
+        for (String name : decryptedCredentials.keySet()) {
+            FutureTask<Decrypted> decryption = decryptedCredentials.remove(name);
+            Decrypted decrypted = decryption != null ? awaitQuietly(decryption) : null;
+            if (decrypted != null) {
+                decrypted.wipe();
+            }
+        }
+    }
+
+    private CredentialsContainer containerOf(String name) {
+        // look up the credentials in the containers of the stores in the configured order, only decrypting the credentials of the first store that holds them
+        if (stores.isEmpty()) {
+            return credentials.containsKey(name) ? this : null;
+        }
+        for (CredentialsContainer store : stores.values()) {
+            CredentialsContainer container = store.containerOf(name);
+            if (container != null) {
+                return container;
+            }
+        }
+        return null;
+    }
+
+    // returns null if the credentials have been removed since the backend reported them as present, e.g. because the credentials file has been reloaded in between
+    private char[] decrypted(String name) {
+        // discard the memoized credentials if the stored credentials have changed since they were decrypted, e.g. because the credentials file has been updated
+        Object version = credentials.versionOf(name);
+        FutureTask<Decrypted> decryption = decryptedCredentials.get(name);
+        if (decryption != null) {
+            Decrypted decrypted = await(name, decryption);
+            if (decrypted != null && Objects.equals(decrypted.version, version)) {
+                cacheHits.increment();
+                statistics.recordCacheHit();
+                return decrypted.value;
+            } else if (decrypted != null && decryptedCredentials.remove(name, decryption)) {
+                LOGGER.debug("Reload changed credentials with key: " + name);
+                decrypted.wipe();
+            }
+        }
+        Decrypted decrypted = await(name, decryption(name));
+        return decrypted != null ? decrypted.value : null;
+    }
+
+    private FutureTask<Decrypted> decryption(String name) {
+        // memoize the pending decryption rather than the decrypted credentials, such that the decryption, which may include the derivation of the secret key, runs outside
+        // of the map and only blocks concurrent accesses to the same key
+        FutureTask<Decrypted> decryption = new FutureTask<>(() -> decrypt(name));
+        FutureTask<Decrypted> existing = decryptedCredentials.putIfAbsent(name, decryption);
+        if (existing != null) {
+            return existing;
+        }
+        decryption.run();
+        return decryption;
+    }
+
+    private Decrypted await(String name, FutureTask<Decrypted> decryption) {
+        // do not memoize absent credentials or failed decryptions, such that they are looked up again on the next access
+        try {
+            Decrypted decrypted = decryption.get();
+            if (decrypted == null) {
+                decryptedCredentials.remove(name, decryption);
+            }
+            return decrypted;
+        } catch (ExecutionException e) {
+            decryptedCredentials.remove(name, decryption);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Could not decrypt credentials with key: " + name, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while decrypting credentials with key: " + name, e);
+        }
+    }
+
+    private static Decrypted awaitQuietly(FutureTask<Decrypted> decryption) {
+        try {
+            return decryption.get();
+        } catch (ExecutionException e) {
             return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Decrypted decrypt(String name) {
+        cacheMisses.increment();
+        long start = System.nanoTime();
+        Object version = credentials.versionOf(name);
+        char[] decrypted = credentials.get(name);
+        statistics.recordDecryption(System.nanoTime() - start);
+
+        // do not memoize absent credentials, such that credentials that are added again are picked up on the next access
+        return decrypted != null ? new Decrypted(decrypted, version) : null;
+    }
+
+    private static final class Decrypted {
+
+        private final char[] value;
+        private final Object version;
+
+        private Decrypted(char[] value, Object version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        private void wipe() {
+            Arrays.fill(value, '\0');
         }
 
     }
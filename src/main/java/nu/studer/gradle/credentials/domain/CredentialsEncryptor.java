@@ -1,16 +1,44 @@
 package nu.studer.gradle.credentials.domain;
 
+import nu.studer.gradle.util.Utf8;
+import nu.studer.java.util.OrderedProperties;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
 /**
  * Encrypts/decrypts credentials through password-based encryption.
+ * <p>
+ * New credentials are encrypted through {@link AuthenticatedEncryption}, applying the key derivation parameters of this instance. Credentials are decrypted according to the
+ * format they were encrypted in, such that credentials encrypted in the legacy format of {@link Encryption} or with different key derivation parameters can still be
+ * decrypted. The secret key of each distinct set of key derivation parameters is derived lazily on first use and shared by all instances created from the same passphrase.
  *
+ * @see AuthenticatedEncryption
  * @see Encryption
  */
 public final class CredentialsEncryptor {
 
-    private final Encryption encryption;
+    private static final String FINGERPRINT_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeyDerivation keyDerivation;
+    private final Keys keys;
 
-    private CredentialsEncryptor(Encryption encryption) {
-        this.encryption = encryption;
+    private CredentialsEncryptor(KeyDerivation keyDerivation, Keys keys) {
+        this.keyDerivation = keyDerivation;
+        this.keys = keys;
     }
 
     /**
@@ -20,7 +48,64 @@ public final class CredentialsEncryptor {
      * @return the encrypted string
      */
     public String encrypt(String string) {
-        return string != null ? encryption.encrypt(string) : null;
+        return string != null ? keys.authenticatedEncryption(keyDerivation).encrypt(string) : null;
+    }
+
+    /**
+     * Encrypts the given characters, without creating an immutable copy of them. The UTF-8 bytes encoded from the characters are wiped once encrypted.
+     *
+     * @param chars the characters to encrypt
+     * @return the encrypted string
+     */
+    public String encrypt(char[] chars) {
+        if (chars == null) {
+            return null;
+        }
+        byte[] utf8 = Utf8.encode(chars);
+        try {
+            return encrypt(ByteBuffer.wrap(utf8));
+        } finally {
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    /**
+     * Encrypts the remaining UTF-8 bytes of the given buffer, consuming them.
+     *
+     * @param utf8 the UTF-8 bytes to encrypt
+     * @return the encrypted string
+     */
+    public String encrypt(ByteBuffer utf8) {
+        return utf8 != null ? keys.authenticatedEncryption(keyDerivation).encrypt(utf8) : null;
+    }
+
+    /**
+     * Encrypts the values of the given credentials in parallel.
+     *
+     * @param credentials the credentials to encrypt
+     * @return the encrypted credentials, in the same order as the given credentials
+     */
+    public Map<String, String> encryptAll(OrderedProperties credentials) {
+        return credentials.entrySet().parallelStream().collect(Collectors.toMap(Map.Entry::getKey, e -> encrypt(e.getValue()), (a, b) -> b, LinkedHashMap::new));
+    }
+
+    /**
+     * Decrypts the values of the given credentials with the given encryptor and encrypts them with this instance, in parallel. The decrypted values are only held as character
+     * arrays and are wiped once encrypted.
+     *
+     * @param credentials the encrypted credentials to re-encrypt
+     * @param decryptor the encryptor to decrypt the credentials with
+     * @return the re-encrypted credentials, in the same order as the given credentials
+     */
+    public Map<String, String> reencryptAll(OrderedProperties credentials, CredentialsEncryptor decryptor) {
+        return credentials.entrySet().parallelStream().collect(Collectors.toMap(Map.Entry::getKey, e -> {
+            char[] decrypted = decryptor.decryptToChars(e.getValue());
+            try {
+                return encrypt(decrypted);
+            } finally {
+                Arrays.fill(decrypted, '\0');
+            }
+        }, (a, b) -> b, LinkedHashMap::new));
     }
 
     /**
@@ -30,7 +115,143 @@ public final class CredentialsEncryptor {
      * @return the decrypted string
      */
     public String decrypt(String string) {
-        return string != null ? encryption.decrypt(string) : null;
+        if (string == null) {
+            return null;
+        }
+        byte[] utf8 = decryptBytes(string);
+        try {
+            return new String(utf8, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts the given string into a new character array, without creating an immutable copy of the decrypted characters. The intermediate UTF-8 bytes are wiped once
+     * decoded.
+     *
+     * @param string the string to decrypt
+     * @return the decrypted characters, to be wiped by the caller once no longer needed
+     */
+    public char[] decryptToChars(String string) {
+        if (string == null) {
+            return null;
+        }
+        byte[] utf8 = decryptBytes(string);
+        try {
+            return Utf8.decode(utf8);
+        } finally {
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts the given string into the given buffer as UTF-8 bytes, starting at the position of the buffer. The intermediate bytes are wiped once copied.
+     *
+     * @param string the string to decrypt
+     * @param dst the buffer to write the decrypted UTF-8 bytes to
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the buffer has not enough bytes remaining
+     */
+    public int decrypt(String string, ByteBuffer dst) {
+        byte[] utf8 = decryptBytes(string);
+        try {
+            dst.put(utf8);
+            return utf8.length;
+        } finally {
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    private byte[] decryptBytes(String string) {
+        if (AuthenticatedEncryption.isEncrypted(string)) {
+            return keys.authenticatedEncryption(AuthenticatedEncryption.keyDerivationOf(string)).decryptBytes(string);
+        } else {
+            return keys.legacyEncryption().decryptBytes(string);
+        }
+    }
+
+    /**
+     * Returns whether the given encrypted strings decrypt to the same value. Since each encryption applies a random nonce, the encrypted strings themselves differ even for the
+     * same value. The decrypted values are compared through their keyed hash (HMAC), where the key is random and only held in memory, such that the comparison neither takes
+     * time depending on the values nor yields anything that could be used to recover the values. A string that cannot be decrypted is never the same value.
+     *
+     * @param string the encrypted string
+     * @param otherString the other encrypted string
+     * @return true if both strings decrypt to the same value
+     */
+    public boolean isSameValue(String string, String otherString) {
+        if (string == null || otherString == null) {
+            return string == null && otherString == null;
+        }
+        try {
+            return MessageDigest.isEqual(fingerprint(string), fingerprint(otherString));
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private byte[] fingerprint(String string) {
+        byte[] utf8 = decryptBytes(string);
+        try {
+            Mac mac = Mac.getInstance(FINGERPRINT_ALGORITHM);
+            mac.init(keys.fingerprintKey);
+            return mac.doFinal(utf8);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Cannot fingerprint credentials: " + e.getMessage(), e);
+        } finally {
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns whether the given encrypted string has been encrypted in the current format and with the key derivation parameters of this instance.
+     *
+     * @param string the encrypted string
+     * @return true if the string does not need to be re-encrypted
+     */
+    public boolean isCurrent(String string) {
+        return AuthenticatedEncryption.isEncrypted(string) && AuthenticatedEncryption.keyDerivationOf(string).equals(keyDerivation);
+    }
+
+    /**
+     * Re-encrypts the given encrypted string in the current format and with the key derivation parameters of this instance, unless it is already current.
+     *
+     * @param string the encrypted string
+     * @return the re-encrypted string
+     */
+    public String reencrypt(String string) {
+        return isCurrent(string) ? string : encrypt(decrypt(string));
+    }
+
+    public KeyDerivation getKeyDerivation() {
+        return keyDerivation;
+    }
+
+    /**
+     * Returns an instance that encrypts with the given key derivation parameters. The returned instance shares the already derived secret keys with this instance.
+     *
+     * @param keyDerivation the key derivation parameters to encrypt with
+     * @return the instance that encrypts with the given key derivation parameters
+     */
+    public CredentialsEncryptor withKeyDerivation(KeyDerivation keyDerivation) {
+        return keyDerivation.equals(this.keyDerivation) ? this : new CredentialsEncryptor(keyDerivation, keys);
+    }
+
+    /**
+     * Returns an instance that encrypts with the same key derivation parameters as the first of the given encrypted credentials that is encrypted in the current format, such
+     * that all credentials of a credentials file share the same secret key. If none of the given credentials is encrypted in the current format, this instance is returned.
+     *
+     * @param encryptedCredentials the encrypted credentials of a credentials file
+     * @return the instance that encrypts with the key derivation parameters of the given credentials
+     */
+    public CredentialsEncryptor forCredentials(Iterable<String> encryptedCredentials) {
+        for (String encrypted : encryptedCredentials) {
+            if (AuthenticatedEncryption.isEncrypted(encrypted)) {
+                return withKeyDerivation(AuthenticatedEncryption.keyDerivationOf(encrypted));
+            }
+        }
+        return this;
     }
 
     /**
@@ -40,8 +261,81 @@ public final class CredentialsEncryptor {
      * @return the new instance
      */
     public static CredentialsEncryptor withPassphrase(char[] passphrase) {
-        Encryption encryption = Encryption.createEncryption(passphrase);
-        return new CredentialsEncryptor(encryption);
+        return withPassphrase(passphrase, KeyDerivation.create(KeyDerivation.DEFAULT_ITERATIONS), KeyDerivation::deriveKey);
+    }
+
+    /**
+     * Creates a new instance that will use the given passphrase for all encryption/decryption activities, encrypting with the given key derivation parameters and deriving the
+     * secret keys through the given key deriver.
+     *
+     * @param passphrase the passphrase to encrypt/decrypt the credentials with
+     * @param keyDerivation the key derivation parameters to encrypt with
+     * @param keyDeriver the key deriver that derives the secret keys from the passphrase
+     * @return the new instance
+     */
+    public static CredentialsEncryptor withPassphrase(char[] passphrase, KeyDerivation keyDerivation, KeyDeriver keyDeriver) {
+        return new CredentialsEncryptor(keyDerivation, new Keys(passphrase.clone(), keyDeriver));
+    }
+
+    /**
+     * Derives the bytes of a secret key from a passphrase.
+     */
+    @FunctionalInterface
+    public interface KeyDeriver {
+
+        byte[] deriveKey(KeyDerivation keyDerivation, char[] passphrase);
+
+    }
+
+    private static final class Keys {
+
+        private final char[] passphrase;
+        private final KeyDeriver keyDeriver;
+        private final SecretKey fingerprintKey;
+        private final ConcurrentMap<KeyDerivation, AuthenticatedEncryption> authenticatedEncryptions = new ConcurrentHashMap<>();
+        private volatile Encryption legacyEncryption;
+
+        private Keys(char[] passphrase, KeyDeriver keyDeriver) {
+            this.passphrase = passphrase;
+            this.keyDeriver = keyDeriver;
+
+            // the fingerprint key is random rather than derived from the passphrase, such that fingerprints cannot be compared across instances
+            byte[] fingerprintKeyBytes = new byte[32];
+            RANDOM.nextBytes(fingerprintKeyBytes);
+            this.fingerprintKey = new SecretKeySpec(fingerprintKeyBytes, FINGERPRINT_ALGORITHM);
+            Arrays.fill(fingerprintKeyBytes, (byte) 0);
+        }
+
+        private AuthenticatedEncryption authenticatedEncryption(KeyDerivation keyDerivation) {
+            return authenticatedEncryptions.computeIfAbsent(keyDerivation, k -> {
+                byte[] derivedKey = keyDeriver.deriveKey(k, passphrase);
+                try {
+                    return AuthenticatedEncryption.create(k, derivedKey);
+                } finally {
+                    Arrays.fill(derivedKey, (byte) 0);
+                }
+            });
+        }
+
+        private Encryption legacyEncryption() {
+            Encryption encryption = legacyEncryption;
+            if (encryption == null) {
+                synchronized (this) {
+                    encryption = legacyEncryption;
+                    if (encryption == null) {
+                        byte[] derivedKey = keyDeriver.deriveKey(KeyDerivation.LEGACY, passphrase);
+                        try {
+                            encryption = Encryption.createEncryption(derivedKey);
+                        } finally {
+                            Arrays.fill(derivedKey, (byte) 0);
+                        }
+                        legacyEncryption = encryption;
+                    }
+                }
+            }
+            return encryption;
+        }
+
     }
 
 }
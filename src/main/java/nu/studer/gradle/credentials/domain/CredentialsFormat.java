@@ -0,0 +1,70 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.gradle.api.UncheckedIOException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The formats in which credentials files can be persisted. The format of an existing credentials file is detected from its content.
+ */
+public enum CredentialsFormat {
+
+    /**
+     * Text-based properties format, where each credentials entry is stored on a separate line.
+     */
+    PROPERTIES,
+
+    /**
+     * Compact binary format with a header index, such that single credentials can be looked up without parsing the entire file.
+     */
+    BINARY;
+
+    /**
+     * Detects the format of the given credentials file. A file that does not exist yet is considered to be in properties format.
+     *
+     * @param file the credentials file
+     * @return the format of the credentials file
+     */
+    public static CredentialsFormat of(File file) {
+        if (!file.isFile() || file.length() < BinaryCredentials.MAGIC.length) {
+            return PROPERTIES;
+        }
+
+        // read the leading bytes of the file and check if they match the magic header of the binary format
+        byte[] header = new byte[BinaryCredentials.MAGIC.length];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read = 0;
+            while (read < header.length) {
+                int n = inputStream.read(header, read, header.length - read);
+                if (n < 0) {
+                    return PROPERTIES;
+                }
+                read += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Arrays.equals(header, BinaryCredentials.MAGIC) ? BINARY : PROPERTIES;
+    }
+
+    /**
+     * Returns the format with the given name, ignoring case.
+     *
+     * @param name the name of the format
+     * @return the format with the given name
+     */
+    public static CredentialsFormat forName(String name) {
+        for (CredentialsFormat format : values()) {
+            if (format.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown credentials format: " + name + ", supported formats: " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+    }
+
+}
@@ -0,0 +1,184 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.java.util.OrderedProperties;
+import org.gradle.api.UncheckedIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes to a credentials file, stored next to the credentials file. Each change is appended as a record, such that a change does not require to
+ * rewrite the credentials file. The credentials are read by replaying the journal onto the credentials file. The journal is compacted by storing the replayed credentials in the
+ * credentials file and deleting the journal.
+ * <p>
+ * Each record consists of the length of its payload (int), the payload, and the CRC32 checksum of the payload (int). The payload consists of the operation (byte), the length of
+ * the key (int), the UTF-8 bytes of the key, and, for a put operation, the length of the value (int) and the UTF-8 bytes of the value. A truncated or corrupt record at the end of
+ * the journal, e.g. from an interrupted append, is ignored along with any subsequent bytes, and is truncated by the next append.
+ */
+final class CredentialsJournal {
+
+    private static final String JOURNAL_FILE_SUFFIX = ".journal";
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsJournal.class);
+
+    private CredentialsJournal() {
+    }
+
+    /**
+     * Returns the journal file of the given credentials file.
+     *
+     * @param credentialsFile the credentials file
+     * @return the journal file
+     */
+    static File journalFile(File credentialsFile) {
+        return new File(credentialsFile.getPath() + JOURNAL_FILE_SUFFIX);
+    }
+
+    /**
+     * Appends the given changes to the given journal file, creating the file with the given permissions if it does not exist yet. The changes are written right after the valid
+     * records of the journal, as determined by {@link #replay(File, OrderedProperties)}, truncating any corrupt record at the end of the journal, such that the appended changes
+     * are not ignored on replay. The changes are flushed to the storage device before returning.
+     *
+     * @param journalFile the journal file
+     * @param validLength the length of the valid records of the journal file, or 0 if the journal file does not exist
+     * @param changes the changes to append, mapping each key to its new value or to null if the key is removed
+     * @param permissions the POSIX permissions to create the journal file with, or null if the file system does not support POSIX permissions
+     */
+    static void append(File journalFile, long validLength, Map<String, String> changes, Set<PosixFilePermission> permissions) {
+        // encode all records first, such that they are appended through a single write
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            DataOutputStream recordsOutput = new DataOutputStream(records);
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream payloadOutput = new DataOutputStream(payload);
+            CRC32 crc = new CRC32();
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                payload.reset();
+                payloadOutput.writeByte(change.getValue() != null ? PUT : REMOVE);
+                writeString(change.getKey(), payloadOutput);
+                if (change.getValue() != null) {
+                    writeString(change.getValue(), payloadOutput);
+                }
+
+                crc.reset();
+                crc.update(payload.toByteArray());
+                recordsOutput.writeInt(payload.size());
+                payload.writeTo(recordsOutput);
+                recordsOutput.writeInt((int) crc.getValue());
+            }
+
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(), EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE),
+                FilePermissions.asFileAttributes(permissions))) {
+                if (channel.size() > validLength) {
+                    LOGGER.debug("Truncate " + (channel.size() - validLength) + " byte(s) of corrupt records at the end of credentials journal: " + journalFile.getAbsolutePath());
+                    channel.truncate(validLength);
+                }
+                channel.position(validLength);
+                ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Replays the records of the given journal file onto the given credentials, in the order in which they were appended.
+     *
+     * @param journalFile the journal file
+     * @param credentials the credentials to apply the records to
+     * @return the length of the valid records, excluding any corrupt record at the end of the journal
+     */
+    static long replay(File journalFile, OrderedProperties credentials) {
+        int count = 0;
+        long validLength = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = input.readInt();
+                    if (length <= 0 || length > journalFile.length()) {
+                        LOGGER.debug("Ignore corrupt record at the end of credentials journal: " + journalFile.getAbsolutePath());
+                        break;
+                    }
+                    payload = new byte[length];
+                    input.readFully(payload);
+                    crc.reset();
+                    crc.update(payload);
+                    if (input.readInt() != (int) crc.getValue()) {
+                        LOGGER.debug("Ignore corrupt record at the end of credentials journal: " + journalFile.getAbsolutePath());
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // end of the journal, or a truncated record at the end of the journal
+                    break;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                byte operation = buffer.get();
+                String key = readString(buffer);
+                if (operation == PUT) {
+                    credentials.setProperty(key, readString(buffer));
+                } else {
+                    credentials.removeProperty(key);
+                }
+                count++;
+                validLength += 4 + payload.length + 4;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOGGER.debug("Replayed " + count + " record(s) of credentials journal: " + journalFile.getAbsolutePath());
+        return validLength;
+    }
+
+    /**
+     * Deletes the given journal file, if it exists.
+     *
+     * @param journalFile the journal file
+     */
+    static void delete(File journalFile) {
+        try {
+            Files.deleteIfExists(journalFile.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(String string, DataOutputStream output) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -10,18 +10,64 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Manages the storage and retrieval of encrypted credentials.
+ * <p>
+ * The credentials file is never modified in place. Updated credentials are written to a temporary file that then atomically replaces the credentials file, such that readers
+ * always see either the previous or the updated credentials, without needing to lock the file. The replacing file keeps the permissions of the credentials file, while a new
+ * credentials file is only accessible by its owner. Read-modify-write cycles are serialized across threads and processes through an
+ * exclusive lock on a separate lock file next to the credentials file.
+ * <p>
+ * Credentials are persisted either in properties format or in binary format, see {@link CredentialsFormat}. The format of an existing credentials file is detected when reading
+ * the file and retained when updating the file. Snapshots of a credentials file are backed by the indexed content of the file, such that single credentials are looked up
+ * without decoding the values of the rest of the file. Only large files are memory-mapped, see {@link FileBuffers}.
+ * <p>
+ * Optionally, changes are appended to a {@link CredentialsJournal journal} next to the credentials file rather than rewriting the credentials file for each change. Reading the
+ * credentials replays the journal onto the credentials file.
  */
 public final class CredentialsPersistenceManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsPersistenceManager.class);
 
+    // file locks are held on behalf of the entire JVM, hence threads of the same JVM need to be serialized separately
+    private static final ConcurrentMap<File, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private static final String RETIRED_FILE_SUFFIX = ".retired";
+
     private final File credentialsFile;
+    private final long journalThreshold;
 
     public CredentialsPersistenceManager(File credentialsFile) {
+        this(credentialsFile, 0L);
+    }
+
+    /**
+     * Creates a new instance that appends changes to the journal of the credentials file, see {@link #updateCredentials(Map)}.
+     *
+     * @param credentialsFile the credentials file
+     * @param journalThreshold the size in bytes of the journal above which the journal is compacted into the credentials file, or 0 to not append changes to the journal
+     */
+    public CredentialsPersistenceManager(File credentialsFile, long journalThreshold) {
         this.credentialsFile = credentialsFile;
+        this.journalThreshold = journalThreshold;
     }
 
     public File getCredentialsFile() {
@@ -30,24 +76,235 @@ public final class CredentialsPersistenceManager {
 
     public OrderedProperties readCredentials() {
         OrderedProperties credentials = createOrderedProperties();
+        readCredentials(credentials);
+        return credentials;
+    }
 
+    private long readCredentials(OrderedProperties credentials) {
         // read the file with the encrypted credentials, if it already exists
         File file = getCredentialsFile();
         if (file.exists()) {
-            LOGGER.debug("Read existing credentials file: " + file.getAbsolutePath());
-            loadProperties(credentials, file);
+            CredentialsFormat format = CredentialsFormat.of(file);
+            LOGGER.debug("Read existing credentials file in " + format + " format: " + file.getAbsolutePath());
+            if (format == CredentialsFormat.BINARY) {
+                BinaryCredentials.read(file).copyTo(credentials);
+            } else {
+                loadProperties(credentials, file);
+            }
         } else {
             LOGGER.debug("Credentials file does not exist yet: " + file.getAbsolutePath());
         }
 
-        return credentials;
+        // replay the changes appended to the journal since the credentials file was last written, returning the length of the valid records of the journal
+        File journalFile = CredentialsJournal.journalFile(file);
+        return journalFile.exists() ? CredentialsJournal.replay(journalFile, credentials) : 0;
+    }
+
+    public CredentialsSnapshot readSnapshot() {
+        // capture the state of the file before reading it, such that any concurrent modification is detected when checking the snapshot for staleness
+        File file = getCredentialsFile();
+        File journalFile = CredentialsJournal.journalFile(file);
+        FileState fileState = FileState.of(file);
+        FileState journalState = FileState.of(journalFile);
+        if (file.isFile() && !journalFile.exists()) {
+            CredentialsFormat format = CredentialsFormat.of(file);
+            LOGGER.debug("Index existing credentials file in " + format + " format: " + file.getAbsolutePath());
+            Map<String, String> credentials = format == CredentialsFormat.BINARY ? BinaryCredentials.read(file) : PropertiesCredentials.read(file);
+            return new CredentialsSnapshot(credentials, fileState, journalState);
+        }
+        return new CredentialsSnapshot(readCredentials(), fileState, journalState);
     }
 
     public void storeCredentials(OrderedProperties credentials) {
-        // write the updated credentials
+        // write the updated credentials in the format of the existing file
+        storeCredentials(credentials, CredentialsFormat.of(getCredentialsFile()));
+    }
+
+    public void storeCredentials(OrderedProperties credentials, CredentialsFormat format) {
+        // write the updated credentials in the given format
+        File file = getCredentialsFile();
+        LOGGER.debug("Write updated credentials file in " + format + " format: " + file.getAbsolutePath());
+        if (format == CredentialsFormat.BINARY) {
+            save(file, outputStream -> BinaryCredentials.write(credentials, outputStream));
+        } else {
+            save(file, outputStream -> credentials.store(outputStream, null));
+        }
+
+        // the stored credentials supersede the changes in the journal, replaying the journal again in case this step does not complete is harmless
+        CredentialsJournal.delete(CredentialsJournal.journalFile(file));
+    }
+
+    /**
+     * Reads the current credentials, applies the given update, and stores the updated credentials, while holding an exclusive lock that prevents concurrent updates of the
+     * same credentials file from any thread or process.
+     *
+     * @param update the update to apply to the current credentials
+     */
+    public void updateCredentials(Consumer<OrderedProperties> update) {
+        withLock(() -> {
+            OrderedProperties credentials = readCredentials();
+            update.accept(credentials);
+            storeCredentials(credentials);
+        });
+    }
+
+    /**
+     * Applies the given changes to the current credentials, while holding the same exclusive lock as {@link #updateCredentials(Consumer)}. If a journal threshold is configured,
+     * the changes are appended to the journal of the credentials file without rewriting the credentials file, and the journal is compacted into the credentials file once it
+     * exceeds the threshold. Otherwise, the credentials file is rewritten right away.
+     *
+     * @param changes the changes to apply, mapping each key to its new encrypted value or to null if the key is removed
+     */
+    public void updateCredentials(Map<String, String> changes) {
+        updateCredentials(changes, String::equals);
+    }
+
+    /**
+     * Applies the given changes to the current credentials like {@link #updateCredentials(Map)}, skipping all changes that would not change the current credentials: keys that
+     * already map to the same value according to the given predicate, and removed keys that do not exist. If no change remains, the credentials file is not written at all.
+     *
+     * @param changes the changes to apply, mapping each key to its new encrypted value or to null if the key is removed
+     * @param sameValue the predicate that tests whether the current encrypted value of a key and its new encrypted value are the same value
+     * @return the number of changes applied
+     */
+    public int updateCredentials(Map<String, String> changes, BiPredicate<String, String> sameValue) {
+        int[] applied = new int[1];
+        withLock(() -> {
+            // drop the changes that do not change the current credentials
+            OrderedProperties credentials = createOrderedProperties();
+            long journalLength = readCredentials(credentials);
+            Map<String, String> effectiveChanges = new LinkedHashMap<>();
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                String currentValue = credentials.getProperty(change.getKey());
+                boolean unchanged = change.getValue() == null ? currentValue == null : currentValue != null && sameValue.test(currentValue, change.getValue());
+                if (!unchanged) {
+                    effectiveChanges.put(change.getKey(), change.getValue());
+                }
+            }
+            applied[0] = effectiveChanges.size();
+            if (effectiveChanges.isEmpty()) {
+                LOGGER.debug("Skip unchanged credentials file: " + getCredentialsFile().getAbsolutePath());
+                return;
+            }
+
+            if (journalThreshold <= 0) {
+                applyChanges(effectiveChanges, credentials);
+                storeCredentials(credentials);
+                return;
+            }
+
+            File journalFile = CredentialsJournal.journalFile(getCredentialsFile());
+            LOGGER.debug("Append " + effectiveChanges.size() + " change(s) to credentials journal: " + journalFile.getAbsolutePath());
+            CredentialsJournal.append(journalFile, journalLength, effectiveChanges, FilePermissions.permissionsOf(getCredentialsFile()));
+            if (journalFile.length() > journalThreshold) {
+                LOGGER.debug("Compact credentials journal of " + journalFile.length() + " bytes: " + journalFile.getAbsolutePath());
+                storeCredentials(readCredentials());
+            }
+        });
+        return applied[0];
+    }
+
+    /**
+     * Compacts the journal of the credentials file into the credentials file, if there is a journal.
+     */
+    public void compactCredentials() {
+        withLock(() -> {
+            if (CredentialsJournal.journalFile(getCredentialsFile()).exists()) {
+                storeCredentials(readCredentials());
+            }
+        });
+    }
+
+    /**
+     * Converts the credentials file to the given format, while holding the same exclusive lock as {@link #updateCredentials(Consumer)}. The credentials themselves remain
+     * unchanged.
+     *
+     * @param format the format to convert the credentials file to
+     */
+    public void migrateCredentials(CredentialsFormat format) {
+        withLock(() -> storeCredentials(readCredentials(), format));
+    }
+
+    /**
+     * Reads the current credentials, transforms them, and stores the transformed credentials in the credentials file of the given persistence manager, in the format of this
+     * credentials file. Once the transformed credentials are stored, this credentials file is retired by renaming it, and its journal is deleted. Both credentials files are
+     * locked for the whole rotation, in the order of their canonical paths. Neither the target credentials file nor the retired credentials file may exist yet.
+     *
+     * @param target the persistence manager of the credentials file to store the transformed credentials in
+     * @param transformation the transformation of the credentials
+     * @return the retired credentials file
+     */
+    public File rotateCredentials(CredentialsPersistenceManager target, UnaryOperator<OrderedProperties> transformation) {
+        File canonicalFile = canonicalFile(getCredentialsFile());
+        File canonicalTargetFile = canonicalFile(target.getCredentialsFile());
+        if (canonicalFile.equals(canonicalTargetFile)) {
+            throw new IllegalArgumentException("Credentials file cannot be rotated to itself: " + canonicalFile.getAbsolutePath());
+        }
+
+        // lock both credentials files in the order of their canonical paths, such that rotations between the same files in opposite directions cannot deadlock
+        CredentialsPersistenceManager first = canonicalFile.compareTo(canonicalTargetFile) < 0 ? this : target;
+        CredentialsPersistenceManager second = first == this ? target : this;
+        File[] retiredFile = new File[1];
+        first.withLock(() -> second.withLock(() -> {
+            File file = getCredentialsFile();
+            File targetFile = target.getCredentialsFile();
+            if (!file.exists() && !CredentialsJournal.journalFile(file).exists()) {
+                throw new IllegalArgumentException("Credentials file to rotate does not exist: " + file.getAbsolutePath());
+            }
+            if (targetFile.exists() || CredentialsJournal.journalFile(targetFile).exists()) {
+                throw new IllegalStateException("Credentials file to rotate to already exists: " + targetFile.getAbsolutePath());
+            }
+            retiredFile[0] = new File(file.getPath() + RETIRED_FILE_SUFFIX);
+            if (retiredFile[0].exists()) {
+                throw new IllegalStateException("Retired credentials file of a previous rotation already exists: " + retiredFile[0].getAbsolutePath());
+            }
+
+            // store the transformed credentials before retiring the current credentials file, such that the credentials are never lost
+            target.storeCredentials(transformation.apply(readCredentials()), CredentialsFormat.of(file));
+            try {
+                if (file.exists()) {
+                    // never replace a retired credentials file, it may hold the only copy of credentials encrypted with an earlier passphrase
+                    Files.move(file.toPath(), retiredFile[0].toPath());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            CredentialsJournal.delete(CredentialsJournal.journalFile(file));
+            LOGGER.debug("Retired credentials file: " + retiredFile[0].getAbsolutePath());
+        }));
+        return retiredFile[0];
+    }
+
+    private static void applyChanges(Map<String, String> changes, OrderedProperties credentials) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                credentials.setProperty(change.getKey(), change.getValue());
+            } else {
+                credentials.removeProperty(change.getKey());
+            }
+        }
+    }
+
+    private void withLock(Runnable action) {
         File file = getCredentialsFile();
-        LOGGER.debug("Write updated credentials file: " + file.getAbsolutePath());
-        saveProperties(credentials, file);
+        ReentrantLock lock = LOCKS.computeIfAbsent(canonicalFile(file), f -> new ReentrantLock());
+        lock.lock();
+        try {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+                 FileChannel channel = lockFile.getChannel()) {
+                FileLock fileLock = channel.lock();
+                try {
+                    LOGGER.debug("Acquired lock to update credentials file: " + file.getAbsolutePath());
+                    action.run();
+                } finally {
+                    fileLock.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
     }
 
     private static void loadProperties(OrderedProperties properties, File file) {
@@ -72,20 +329,56 @@ public final class CredentialsPersistenceManager {
         }
     }
 
-    private static void saveProperties(OrderedProperties properties, File file) {
+    private static void save(File file, CredentialsWriter writer) {
         try {
-            try (FileOutputStream propertiesFileOutputStream = new FileOutputStream(file)) {
-                properties.store(propertiesFileOutputStream, null);
+            // write to a temporary file in the same directory, such that it can be atomically moved to the target file once completely written, where the temporary file is only
+            // accessible by its owner while being written, and then gets the permissions of the target file, or keeps owner-only permissions if the target file is new
+            File tempFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp").toFile();
+            try {
+                try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+                    writer.write(fileOutputStream);
+                    fileOutputStream.getFD().sync();
+                }
+                Set<PosixFilePermission> permissions = FilePermissions.permissionsOf(file);
+                if (permissions != null) {
+                    Files.setPosixFilePermissions(tempFile.toPath(), permissions);
+                }
+                moveReplacing(tempFile, file);
+            } finally {
+                Files.deleteIfExists(tempFile.toPath());
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    private static void moveReplacing(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static File canonicalFile(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private static OrderedProperties createOrderedProperties() {
         return new OrderedProperties.OrderedPropertiesBuilder().
                 withSuppressDateInComment(true).
                 build();
     }
 
+    @FunctionalInterface
+    private interface CredentialsWriter {
+
+        void write(OutputStream outputStream) throws IOException;
+
+    }
+
 }
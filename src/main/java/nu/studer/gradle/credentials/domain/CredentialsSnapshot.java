@@ -0,0 +1,83 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.java.util.OrderedProperties;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of the encrypted credentials persisted in a credentials file at a given point in time. A snapshot can be shared by any number of readers.
+ * <p>
+ * The credentials are looked up through a compact read-only hash index, either over the content of the credentials file or, if the credentials file has a journal, over the
+ * credentials read into memory.
+ */
+public final class CredentialsSnapshot {
+
+    private final Map<String, String> credentials;
+    private final FileState fileState;
+    private final FileState journalState;
+
+    CredentialsSnapshot(OrderedProperties credentials, FileState fileState, FileState journalState) {
+        // index the credentials in a compact read-only table, the ordered properties are only needed to write credentials
+        this(IndexedCredentials.of(credentials), fileState, journalState);
+    }
+
+    CredentialsSnapshot(Map<String, String> credentials, FileState fileState, FileState journalState) {
+        // the binary and properties credentials are read-only and look up entries directly in the content of the file, hence there is no need to copy them
+        this.credentials = credentials;
+        this.fileState = fileState;
+        this.journalState = journalState;
+    }
+
+    /**
+     * Creates a snapshot of the given credentials that is not associated with any credentials file.
+     *
+     * @param credentials the encrypted credentials
+     * @return the new snapshot
+     */
+    public static CredentialsSnapshot of(OrderedProperties credentials) {
+        return new CredentialsSnapshot(credentials, FileState.ABSENT, FileState.ABSENT);
+    }
+
+    public boolean containsKey(String key) {
+        return credentials.containsKey(key);
+    }
+
+    public String get(String key) {
+        return credentials.get(key);
+    }
+
+    public Set<String> keySet() {
+        return credentials.keySet();
+    }
+
+    public Collection<String> values() {
+        return credentials.values();
+    }
+
+    public int size() {
+        return credentials.size();
+    }
+
+    /**
+     * Returns the size of the file and its journal from which this snapshot was taken.
+     *
+     * @return the size of the file and its journal in bytes, or 0 if neither existed
+     */
+    long getLength() {
+        return fileState.getLength() + journalState.getLength();
+    }
+
+    /**
+     * Returns whether the given file and its journal are still in the same state as the file and journal from which this snapshot was taken, see {@link FileState}.
+     *
+     * @param file the file to check
+     * @return true if this snapshot is still up-to-date with the given file
+     */
+    boolean isUpToDate(File file) {
+        return FileState.of(file).equals(fileState) && FileState.of(CredentialsJournal.journalFile(file)).equals(journalState);
+    }
+
+}
@@ -0,0 +1,68 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.gradle.api.UncheckedIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the snapshots of credentials files, keyed by the canonical path of the file. A cached snapshot is reused as long as the last-modified time, the size, and the file key
+ * of its file and of the journal of its file have not changed, otherwise the file is read again.
+ */
+public final class CredentialsSnapshotCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsSnapshotCache.class);
+
+    private final ConcurrentMap<File, CredentialsSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final CredentialsStatistics statistics;
+
+    public CredentialsSnapshotCache() {
+        this(new CredentialsStatistics());
+    }
+
+    public CredentialsSnapshotCache(CredentialsStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the snapshot of the credentials file managed by the given persistence manager, reading the file only if there is no up-to-date snapshot yet.
+     *
+     * @param credentialsPersistenceManager the persistence manager of the credentials file
+     * @return the snapshot of the credentials file
+     */
+    public CredentialsSnapshot get(CredentialsPersistenceManager credentialsPersistenceManager) {
+        File file = canonicalFile(credentialsPersistenceManager.getCredentialsFile());
+        return snapshots.compute(file, (File f, CredentialsSnapshot snapshot) -> {
+            if (snapshot != null && snapshot.isUpToDate(f)) {
+                LOGGER.debug("Reuse credentials snapshot: " + f.getAbsolutePath());
+                statistics.recordSnapshotReuse();
+                return snapshot;
+            } else {
+                long start = System.nanoTime();
+                CredentialsSnapshot newSnapshot = credentialsPersistenceManager.readSnapshot();
+                statistics.recordFileRead(newSnapshot.getLength(), System.nanoTime() - start);
+                return newSnapshot;
+            }
+        });
+    }
+
+    /**
+     * Discards all cached snapshots.
+     */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    private static File canonicalFile(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
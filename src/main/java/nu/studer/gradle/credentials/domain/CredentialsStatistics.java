@@ -0,0 +1,114 @@
+package nu.studer.gradle.credentials.domain;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the counters and timings of the work done to access credentials, aggregated across all projects of a build. All methods are safe for concurrent use.
+ */
+public final class CredentialsStatistics {
+
+    private final LongAdder keyDerivations = new LongAdder();
+    private final LongAdder keyDerivationNanos = new LongAdder();
+    private final LongAdder keyCacheHits = new LongAdder();
+    private final LongAdder fileReads = new LongAdder();
+    private final LongAdder fileReadNanos = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder snapshotReuses = new LongAdder();
+    private final LongAdder decryptions = new LongAdder();
+    private final LongAdder decryptionNanos = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    public void recordKeyDerivation(long nanos) {
+        keyDerivations.increment();
+        keyDerivationNanos.add(nanos);
+    }
+
+    public void recordKeyCacheHit() {
+        keyCacheHits.increment();
+    }
+
+    public void recordFileRead(long bytes, long nanos) {
+        fileReads.increment();
+        bytesRead.add(bytes);
+        fileReadNanos.add(nanos);
+    }
+
+    public void recordSnapshotReuse() {
+        snapshotReuses.increment();
+    }
+
+    public void recordDecryption(long nanos) {
+        decryptions.increment();
+        decryptionNanos.add(nanos);
+    }
+
+    public void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    public long getKeyDerivations() {
+        return keyDerivations.sum();
+    }
+
+    public long getKeyCacheHits() {
+        return keyCacheHits.sum();
+    }
+
+    public long getFileReads() {
+        return fileReads.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getSnapshotReuses() {
+        return snapshotReuses.sum();
+    }
+
+    public long getDecryptions() {
+        return decryptions.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Returns a single-line, human-readable summary of the collected statistics.
+     *
+     * @return the summary
+     */
+    public String toSummary() {
+        return String.format("Credentials: %d key derivation(s) in %d ms, %d key cache hit(s), %d file read(s) of %d byte(s) in %d ms, %d snapshot reuse(s), " +
+                "%d decryption(s) in %d ms, %d cache hit(s)",
+            getKeyDerivations(), millis(keyDerivationNanos), getKeyCacheHits(), getFileReads(), getBytesRead(), millis(fileReadNanos), getSnapshotReuses(),
+            getDecryptions(), millis(decryptionNanos), getCacheHits());
+    }
+
+    /**
+     * Returns the collected statistics as a JSON object, with all timings in milliseconds.
+     *
+     * @return the JSON representation
+     */
+    public String toJson() {
+        return "{\n" +
+            "  \"keyDerivations\": " + getKeyDerivations() + ",\n" +
+            "  \"keyDerivationMillis\": " + millis(keyDerivationNanos) + ",\n" +
+            "  \"keyCacheHits\": " + getKeyCacheHits() + ",\n" +
+            "  \"fileReads\": " + getFileReads() + ",\n" +
+            "  \"bytesRead\": " + getBytesRead() + ",\n" +
+            "  \"fileReadMillis\": " + millis(fileReadNanos) + ",\n" +
+            "  \"snapshotReuses\": " + getSnapshotReuses() + ",\n" +
+            "  \"decryptions\": " + getDecryptions() + ",\n" +
+            "  \"decryptionMillis\": " + millis(decryptionNanos) + ",\n" +
+            "  \"cacheHits\": " + getCacheHits() + "\n" +
+            "}\n";
+    }
+
+    private static long millis(LongAdder nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+    }
+
+}
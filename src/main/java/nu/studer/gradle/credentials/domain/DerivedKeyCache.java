@@ -0,0 +1,140 @@
+package nu.studer.gradle.credentials.domain;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Caches derived secret keys across builds, keyed by the identifier of the key derivation, see {@link KeyDerivation#id(char[])}. Each key expires once its time to live has passed
+ * since it was derived, at which point its bytes are overwritten and discarded. Expired keys are evicted by a background thread, such that they do not linger in memory until
+ * the next lookup.
+ * <p>
+ * The {@link #shared() shared} instance lives as long as the JVM that runs the builds, typically the Gradle daemon. The keys are only held in memory and never persisted.
+ */
+public final class DerivedKeyCache {
+
+    private static final DerivedKeyCache SHARED = new DerivedKeyCache(System::nanoTime, createEvictor());
+
+    private final ConcurrentMap<String, Entry> keys = new ConcurrentHashMap<>();
+    private final LongSupplier nanoTime;
+    private final ScheduledExecutorService evictor;
+
+    DerivedKeyCache(LongSupplier nanoTime, ScheduledExecutorService evictor) {
+        this.nanoTime = nanoTime;
+        this.evictor = evictor;
+    }
+
+    private static ScheduledExecutorService createEvictor() {
+        // the thread only lives while evictions are pending, such that an idle cache does not hold a thread
+        ScheduledThreadPoolExecutor evictor = new ScheduledThreadPoolExecutor(1, (Runnable runnable) -> {
+            Thread thread = new Thread(runnable, "credentials-key-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.setKeepAliveTime(1, TimeUnit.MINUTES);
+        evictor.allowCoreThreadTimeOut(true);
+        return evictor;
+    }
+
+    /**
+     * Returns the cache that is shared by all builds that run in the same JVM.
+     *
+     * @return the shared cache
+     */
+    public static DerivedKeyCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the cached key with the given identifier, or derives and caches the key if there is no cached key yet or the cached key has expired.
+     *
+     * @param keyDerivationId the identifier of the key derivation
+     * @param timeToLiveNanos the time after which a newly derived key expires
+     * @param derivation the derivation of the key
+     * @return a copy of the bytes of the key
+     */
+    public byte[] getOrDerive(String keyDerivationId, long timeToLiveNanos, Supplier<byte[]> derivation) {
+        long now = nanoTime.getAsLong();
+        evictExpired(now);
+
+        // copy the key while holding the lock of the entry, such that it cannot be wiped concurrently
+        byte[][] key = new byte[1][];
+        boolean[] derived = new boolean[1];
+        keys.compute(keyDerivationId, (String id, Entry existing) -> {
+            Entry entry = existing;
+            if (entry == null || entry.isExpired(now)) {
+                if (entry != null) {
+                    entry.wipe();
+                }
+                entry = new Entry(derivation.get(), now + timeToLiveNanos);
+                derived[0] = true;
+            }
+            key[0] = entry.key.clone();
+            return entry;
+        });
+
+        // evict the newly derived key once it has expired, even if it is never looked up again
+        if (derived[0]) {
+            evictor.schedule((Runnable) this::evictExpired, timeToLiveNanos, TimeUnit.NANOSECONDS);
+        }
+        return key[0];
+    }
+
+    /**
+     * Overwrites and discards all cached keys that have expired.
+     */
+    public void evictExpired() {
+        evictExpired(nanoTime.getAsLong());
+    }
+
+    /**
+     * Overwrites and discards all cached keys.
+     */
+    public void clear() {
+        evict(Long.MAX_VALUE, true);
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    private void evictExpired(long now) {
+        evict(now, false);
+    }
+
+    private void evict(long now, boolean all) {
+        for (Map.Entry<String, Entry> mapEntry : keys.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            if ((all || entry.isExpired(now)) && keys.remove(mapEntry.getKey(), entry)) {
+                entry.wipe();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] key;
+        private final long expiresAt;
+
+        private Entry(byte[] key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        private void wipe() {
+            Arrays.fill(key, (byte) 0);
+        }
+
+    }
+
+}
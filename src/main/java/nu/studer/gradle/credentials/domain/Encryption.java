@@ -4,33 +4,40 @@ import nu.studer.gradle.util.Base64;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.GeneralSecurityException;
 import java.security.spec.AlgorithmParameterSpec;
-import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Encryption/decryption of text using ciphers.
+ * Encryption/decryption of text using ciphers, in the legacy format that applies a fixed salt and a fixed iv. Credentials in this format can still be decrypted, while new
+ * credentials are encrypted through {@link AuthenticatedEncryption}.
  * <p>
  * Note: The author of this class is by far not a security expert. The chosen implementation has been primarily gathered from examples in the javax.crypto Javadoc and from
  * discussions on StackOverflow.
  * <p>
  * See also <a href="http://stackoverflow.com/questions/992019/java-256-bit-aes-password-based-encryption">here</a> for a more detailed explanation on the selected security
  * algorithms.
+ * <p>
+ * Instances are thread-safe. Since a {@link Cipher} must not be used by more than one thread at a time, each encryption/decryption borrows an initialized cipher from a pool and
+ * returns it once done. New ciphers are only created when all pooled ciphers are in use, such that the pool grows to the maximum number of concurrent callers at most.
  */
 public final class Encryption {
 
     private static final String UTF_8_CHARSET = "UTF8";
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
 
-    private final Cipher ecipher;
-    private final Cipher dcipher;
+    private final SecretKey key;
+    private final AlgorithmParameterSpec ivSpec;
+    private final Queue<Cipher> ecipherPool = new ConcurrentLinkedQueue<>();
+    private final Queue<Cipher> dcipherPool = new ConcurrentLinkedQueue<>();
 
-    public Encryption(Cipher ecipher, Cipher dcipher) throws GeneralSecurityException {
-        this.ecipher = ecipher;
-        this.dcipher = dcipher;
+    private Encryption(SecretKey key, AlgorithmParameterSpec ivSpec) {
+        this.key = key;
+        this.ivSpec = ivSpec;
     }
 
     /**
@@ -42,7 +49,7 @@ public final class Encryption {
     public String encrypt(String string) {
         try {
             byte[] utf8 = string.getBytes(UTF_8_CHARSET);
-            byte[] enc = ecipher.doFinal(utf8);
+            byte[] enc = doFinal(Cipher.ENCRYPT_MODE, ecipherPool, utf8);
             return Base64.encodeBase64(enc);
         } catch (Exception e) {
             throw new RuntimeException("Encryption failed: " + e.getMessage(), e);
@@ -56,54 +63,76 @@ public final class Encryption {
      * @return the decrypted text
      */
     public String decrypt(String string) {
+        byte[] utf8 = decryptBytes(string);
         try {
-            byte[] dec = Base64.decodeBase64(string);
-            byte[] utf8 = dcipher.doFinal(dec);
             return new String(utf8, UTF_8_CHARSET);
         } catch (Exception e) {
             throw new RuntimeException("Decryption failed: " + e.getMessage(), e);
+        } finally {
+            Arrays.fill(utf8, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypts the given text to its UTF-8 bytes.
+     *
+     * @param string the text to decrypt
+     * @return the UTF-8 bytes of the decrypted text, to be wiped by the caller
+     */
+    byte[] decryptBytes(String string) {
+        try {
+            byte[] dec = Base64.decodeBase64(string);
+            return doFinal(Cipher.DECRYPT_MODE, dcipherPool, dec);
+        } catch (Exception e) {
+            throw new RuntimeException("Decryption failed: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] doFinal(int mode, Queue<Cipher> pool, byte[] input) throws GeneralSecurityException {
+        // borrow an idle cipher or create a new one if all ciphers are currently in use
+        Cipher cipher = pool.poll();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(mode, key, ivSpec);
         }
+
+        // only return the cipher to the pool if it completed successfully and is thus reset to its initial state
+        byte[] output = cipher.doFinal(input);
+        pool.offer(cipher);
+        return output;
     }
 
     /**
-     * Creates a new Encryption instance that uses password-based encryption (PBE). The algorithm used to create the secret key is <i>PBEWithMD5AndDES</i>.
+     * Creates a new Encryption instance that uses password-based encryption (PBE). The algorithm used to create the secret key is <i>PBKDF2WithHmacSHA1</i>.
      *
      * @param passphrase the passphrase to apply when creating the secret key
      * @return the new Encryption instance
      * @throws RuntimeException with wrapped GeneralSecurityException in case of crypto-related exceptions
      */
     public static Encryption createEncryption(char[] passphrase) {
+        return createEncryption(KeyDerivation.LEGACY.deriveKey(passphrase));
+    }
+
+    /**
+     * Creates a new Encryption instance from a secret key that has already been derived from a passphrase through the {@link KeyDerivation#LEGACY legacy} key derivation.
+     *
+     * @param derivedKey the bytes of the derived secret key
+     * @return the new Encryption instance
+     * @throws RuntimeException with wrapped GeneralSecurityException in case of crypto-related exceptions
+     */
+    public static Encryption createEncryption(byte[] derivedKey) {
         try {
-            return createEncryptionThrowingException(passphrase);
+            return createEncryptionThrowingException(derivedKey);
         } catch (GeneralSecurityException e) {
             throw new RuntimeException("Cannot create Encryption instance: " + e.getMessage(), e);
         }
     }
 
-    private static Encryption createEncryptionThrowingException(char[] passphrase) throws GeneralSecurityException {
-        // define a salt to prevent dictionary attacks (ideally, the salt would be
-        // regenerated each time and stored alongside the encrypted text)
-        byte[] salt = {
-                (byte) 0x1F, (byte) 0x13, (byte) 0xE5, (byte) 0xB2,
-                (byte) 0x49, (byte) 0x2C, (byte) 0xC3, (byte) 0x3C
-        };
-
-        // use a high iteration count to slow down the decryption speed
-        int iterationCount = 65536;
-
-        // use the maximum key length that does not require to install the JRE Security Extension
-        int keyLength = 128;
-
-        // provide password, salt, iteration count, and key length for generating the PBEKey
-        KeySpec pbeKeySpec = new PBEKeySpec(passphrase, salt, iterationCount, keyLength);
-
-        // create a secret (symmetric) key using PBE with SHA1 and AES
-        SecretKeyFactory keyFac = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-        SecretKey tmpKey = keyFac.generateSecret(pbeKeySpec);
-        SecretKey pbeKey = new SecretKeySpec(tmpKey.getEncoded(), "AES");
+    private static Encryption createEncryptionThrowingException(byte[] derivedKey) throws GeneralSecurityException {
+        SecretKey pbeKey = new SecretKeySpec(derivedKey, "AES");
 
         // create a fixed iv spec that can be used both for encryption and for later decryption
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         int blockSize = cipher.getBlockSize();
         byte[] iv = new byte[blockSize];
         for (int i = 0; i < iv.length; i++) {
@@ -111,15 +140,8 @@ public final class Encryption {
         }
         AlgorithmParameterSpec ivSpec = new IvParameterSpec(iv);
 
-        // initialize the encryption cipher
-        Cipher pbeEcipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        pbeEcipher.init(Cipher.ENCRYPT_MODE, pbeKey, ivSpec);
-
-        // initialize the decryption cipher
-        Cipher pbeDcipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        pbeDcipher.init(Cipher.DECRYPT_MODE, pbeKey, ivSpec);
-
-        return new Encryption(pbeEcipher, pbeDcipher);
+        // the encryption and decryption ciphers are created and initialized lazily from the secret key and iv spec
+        return new Encryption(pbeKey, ivSpec);
     }
 
 }
@@ -0,0 +1,56 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.gradle.api.UncheckedIOException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Reads the content of credentials files into byte buffers. Files up to {@link #MAX_HEAP_SIZE} bytes are copied onto the heap, such that no mapping of the file outlives the read.
+ * Larger files are memory-mapped, such that only the pages of the file that are accessed are paged in.
+ * <p>
+ * A memory-mapped file cannot be unmapped explicitly and remains mapped until the buffer is garbage-collected. On Windows, a mapped file cannot be replaced, which would make the
+ * atomic replacement of the credentials file fail for as long as a snapshot of the file is held. Hence, files are always copied onto the heap on Windows.
+ */
+final class FileBuffers {
+
+    static final long MAX_HEAP_SIZE = 1024 * 1024;
+
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    private FileBuffers() {
+    }
+
+    /**
+     * Reads the content of the given file, either copied onto the heap or memory-mapped, depending on the size of the file and the operating system.
+     *
+     * @param file the file to read
+     * @return the read-only buffer holding the content of the file
+     */
+    static ByteBuffer read(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_HEAP_SIZE && !WINDOWS) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Credentials file is too large: " + file.getAbsolutePath());
+            }
+
+            // copy the file onto the heap, reading until the end of the file in case the file has been truncated concurrently
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+            return buffer.asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
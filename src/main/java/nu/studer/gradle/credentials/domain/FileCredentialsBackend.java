@@ -0,0 +1,53 @@
+package nu.studer.gradle.credentials.domain;
+
+import java.util.function.Supplier;
+
+/**
+ * Backend that decrypts the credentials of a snapshot of the credentials file.
+ * <p>
+ * Optionally, the backend gets the snapshot from a supplier on each access, such that changes to the credentials file are picked up while a build is running. The encrypted
+ * value of a key serves as the token of its stored value, such that decrypted credentials memoized by a credentials container are only decrypted again if their encrypted value
+ * has changed.
+ */
+public final class FileCredentialsBackend implements CredentialsBackend {
+
+    private final CredentialsEncryptor credentialsEncryptor;
+    private final Supplier<CredentialsSnapshot> credentials;
+    private final boolean reload;
+
+    public FileCredentialsBackend(CredentialsEncryptor credentialsEncryptor, CredentialsSnapshot credentials) {
+        this.credentialsEncryptor = credentialsEncryptor;
+        this.credentials = () -> credentials;
+        this.reload = false;
+    }
+
+    /**
+     * Creates a new instance that gets the current snapshot of the credentials file from the given supplier on each access, e.g. from a {@link CredentialsSnapshotCache} that
+     * only reads the credentials file again if it has changed.
+     *
+     * @param credentialsEncryptor the encryptor to decrypt the credentials with
+     * @param credentials the supplier of the current snapshot
+     */
+    public FileCredentialsBackend(CredentialsEncryptor credentialsEncryptor, Supplier<CredentialsSnapshot> credentials) {
+        this.credentialsEncryptor = credentialsEncryptor;
+        this.credentials = credentials;
+        this.reload = true;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return credentials.get().containsKey(key);
+    }
+
+    @Override
+    public char[] get(String key) {
+        // the key may have been removed since containsKey was called if the snapshot has been reloaded in between, in which case there are no credentials to decrypt
+        return credentialsEncryptor.decryptToChars(credentials.get().get(key));
+    }
+
+    @Override
+    public Object versionOf(String key) {
+        return reload ? credentials.get().get(key) : null;
+    }
+
+}
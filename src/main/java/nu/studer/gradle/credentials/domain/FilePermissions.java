@@ -0,0 +1,106 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.gradle.api.UncheckedIOException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Determines the permissions of the files that hold credentials. A file that replaces an existing credentials file keeps the permissions of the existing file, while a new file
+ * is only readable and writable by its owner. Permissions are only applied on file systems that support POSIX permissions.
+ * <p>
+ * Files that must never be accessible by other users, like the agent file, are created with owner-only POSIX permissions or, on file systems that only support access control
+ * lists like on Windows, with an access control list that only grants access to the owner.
+ */
+final class FilePermissions {
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private FilePermissions() {
+    }
+
+    /**
+     * Returns the POSIX permissions of the given file, or read and write permissions for the owner only if the file does not exist.
+     *
+     * @param file the file
+     * @return the permissions, or null if the file system does not support POSIX permissions
+     */
+    static Set<PosixFilePermission> permissionsOf(File file) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return null;
+        }
+        try {
+            return Files.getPosixFilePermissions(file.toPath());
+        } catch (NoSuchFileException e) {
+            return OWNER_ONLY;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the attributes to create a file with the given POSIX permissions.
+     *
+     * @param permissions the permissions, or null if the file system does not support POSIX permissions
+     * @return the attributes to create the file with
+     */
+    static FileAttribute<?>[] asFileAttributes(Set<PosixFilePermission> permissions) {
+        return permissions != null ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(permissions)} : new FileAttribute<?>[0];
+    }
+
+    /**
+     * Creates the given file such that only its owner can access it.
+     *
+     * @param file the file to create
+     * @throws IOException if the file cannot be created
+     * @throws UnsupportedOperationException if the file system supports neither POSIX permissions nor access control lists
+     */
+    static void createOwnerOnlyFile(Path file) throws IOException {
+        Set<String> views = FileSystems.getDefault().supportedFileAttributeViews();
+        if (views.contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else if (views.contains("acl")) {
+            UserPrincipal owner = file.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+            AclEntry entry = AclEntry.newBuilder().setType(AclEntryType.ALLOW).setPrincipal(owner).setPermissions(EnumSet.allOf(AclEntryPermission.class)).build();
+            Files.createFile(file, new AclFileAttribute(Collections.singletonList(entry)));
+        } else {
+            throw new UnsupportedOperationException("Cannot restrict the access to " + file + " to its owner, the file system supports neither POSIX permissions nor ACLs");
+        }
+    }
+
+    private static final class AclFileAttribute implements FileAttribute<List<AclEntry>> {
+
+        private final List<AclEntry> acl;
+
+        private AclFileAttribute(List<AclEntry> acl) {
+            this.acl = acl;
+        }
+
+        @Override
+        public String name() {
+            return "acl:acl";
+        }
+
+        @Override
+        public List<AclEntry> value() {
+            return acl;
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package nu.studer.gradle.credentials.domain;
+
+import org.gradle.api.UncheckedIOException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * The state of a file at a given point in time, consisting of its last-modified time, its size, and its file key. The file key identifies the file itself, e.g. through the
+ * inode on Unix systems, such that a file that is atomically replaced by a file of the same size within the resolution of the last-modified time is still detected as changed.
+ * On file systems without file keys, like on Windows, only the last-modified time and the size are compared.
+ */
+final class FileState {
+
+    static final FileState ABSENT = new FileState(0L, 0L, null);
+
+    private final long lastModified;
+    private final long length;
+    private final Object fileKey;
+
+    private FileState(long lastModified, long length, Object fileKey) {
+        this.lastModified = lastModified;
+        this.length = length;
+        this.fileKey = fileKey;
+    }
+
+    /**
+     * Returns the current state of the given file.
+     *
+     * @param file the file
+     * @return the state of the file, or {@link #ABSENT} if the file does not exist
+     */
+    static FileState of(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new FileState(attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.fileKey());
+        } catch (NoSuchFileException e) {
+            return ABSENT;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FileState that = (FileState) o;
+        return lastModified == that.lastModified && length == that.length && Objects.equals(fileKey, that.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(lastModified);
+        result = 31 * result + Long.hashCode(length);
+        result = 31 * result + Objects.hashCode(fileKey);
+        return result;
+    }
+
+}
@@ -0,0 +1,99 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.java.util.OrderedProperties;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only credentials held in memory, looked up through a {@link KeyIndex}. The encrypted values are held in an array indexed by the positions of their keys, sharing the key
+ * and value strings of the credentials they were read from.
+ */
+final class IndexedCredentials extends AbstractMap<String, String> {
+
+    private final KeyIndex index;
+    private final String[] values;
+
+    private IndexedCredentials(KeyIndex index, String[] values) {
+        this.index = index;
+        this.values = values;
+    }
+
+    /**
+     * Indexes the given credentials, in the order of the given credentials.
+     *
+     * @param credentials the encrypted credentials
+     * @return the read-only indexed credentials
+     */
+    static IndexedCredentials of(OrderedProperties credentials) {
+        KeyIndex index = new KeyIndex();
+        String[] values = new String[credentials.size()];
+        for (Map.Entry<String, String> entry : credentials.entrySet()) {
+            values[index.add(entry.getKey())] = entry.getValue();
+        }
+        index.trim();
+        return new IndexedCredentials(index, values);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return index.indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int position = index.indexOf(key);
+        return position >= 0 ? values[position] : null;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return index.keys();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+
+                    private int position;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < index.size();
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (position == index.size()) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, String> entry = new SimpleImmutableEntry<>(index.keyAt(position), values[position]);
+                        position++;
+                        return entry;
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+
+        };
+    }
+
+}
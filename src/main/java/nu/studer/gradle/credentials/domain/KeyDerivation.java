@@ -0,0 +1,151 @@
+package nu.studer.gradle.credentials.domain;
+
+import nu.studer.gradle.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * The parameters to derive a secret key from a passphrase: the algorithm, the iteration count, the salt, and the key length. Two instances are equal if all their parameters are
+ * equal, in which case they derive the same secret key from the same passphrase.
+ */
+public final class KeyDerivation {
+
+    /**
+     * The key derivation of credentials encrypted before the versioned encryption format was introduced.
+     */
+    static final KeyDerivation LEGACY = new KeyDerivation("PBKDF2WithHmacSHA1", 65536, new byte[]{
+            (byte) 0x1F, (byte) 0x13, (byte) 0xE5, (byte) 0xB2,
+            (byte) 0x49, (byte) 0x2C, (byte) 0xC3, (byte) 0x3C
+    }, 128);
+
+    public static final int DEFAULT_ITERATIONS = 65536;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String algorithm;
+    private final int iterations;
+    private final byte[] salt;
+    private final int keyLength;
+
+    KeyDerivation(String algorithm, int iterations, byte[] salt, int keyLength) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.salt = salt;
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * Creates the key derivation parameters read from the header of an encrypted value.
+     */
+    static KeyDerivation pbkdf2(int iterations, byte[] salt) {
+        return new KeyDerivation(ALGORITHM, iterations, salt, KEY_LENGTH);
+    }
+
+    /**
+     * Creates new key derivation parameters with the given iteration count and a random salt.
+     *
+     * @param iterations the number of iterations, trading the cost of deriving the key against the resistance to brute-force attacks
+     * @return the new key derivation parameters
+     */
+    public static KeyDerivation create(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Key derivation iterations must be positive: " + iterations);
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return new KeyDerivation(ALGORITHM, iterations, salt, KEY_LENGTH);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Derives the bytes of the secret key from the given passphrase. This is by design an expensive operation.
+     *
+     * @param passphrase the passphrase to derive the secret key from
+     * @return the bytes of the derived secret key
+     * @throws RuntimeException with wrapped GeneralSecurityException in case of crypto-related exceptions
+     */
+    public byte[] deriveKey(char[] passphrase) {
+        PBEKeySpec pbeKeySpec = new PBEKeySpec(passphrase, salt, iterations, keyLength);
+        try {
+            SecretKeyFactory keyFac = SecretKeyFactory.getInstance(algorithm);
+            return keyFac.generateSecret(pbeKeySpec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Cannot derive secret key: " + e.getMessage(), e);
+        } finally {
+            pbeKeySpec.clearPassword();
+        }
+    }
+
+    /**
+     * Returns an identifier of the secret key derived from the given passphrase. The identifier is a hash over the passphrase and all key derivation parameters, such that a
+     * change of any of the parameters yields a different identifier. The passphrase cannot be recovered from the identifier.
+     *
+     * @param passphrase the passphrase to derive the secret key from
+     * @return the identifier of the derived secret key
+     */
+    public String id(char[] passphrase) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer passphraseBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(passphrase));
+            digest.update(passphraseBytes);
+            digest.update((byte) 0);
+            digest.update(algorithm.getBytes(StandardCharsets.UTF_8));
+            digest.update(salt);
+            digest.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(iterations).putInt(keyLength).array());
+
+            // overwrite the encoded passphrase once hashed
+            passphraseBytes.clear();
+            while (passphraseBytes.hasRemaining()) {
+                passphraseBytes.put((byte) 0);
+            }
+            return Base64.printHexBinary(digest.digest());
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Cannot hash passphrase: " + e.getMessage(), e);
+        }
+    }
+
+    byte[] getSalt() {
+        return salt.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        KeyDerivation that = (KeyDerivation) o;
+        return iterations == that.iterations && keyLength == that.keyLength && algorithm.equals(that.algorithm) && Arrays.equals(salt, that.salt);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = algorithm.hashCode();
+        result = 31 * result + iterations;
+        result = 31 * result + Arrays.hashCode(salt);
+        result = 31 * result + keyLength;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + " with " + iterations + " iterations";
+    }
+
+}
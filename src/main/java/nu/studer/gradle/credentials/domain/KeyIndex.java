@@ -0,0 +1,147 @@
+package nu.studer.gradle.credentials.domain;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact hash index that maps the keys of credentials to the positions at which they were added, to look up the values held in plain arrays indexed by the same positions. The
+ * keys are held in an array in the order in which they were added, and placed in a table of slots through open addressing with linear probing. No entry objects are created
+ * and the added key strings are shared rather than copied.
+ * <p>
+ * An index is filled once when reading credentials and is read-only thereafter. Once filled, it can be read concurrently by any number of threads, provided it was published
+ * safely, e.g. through a final field.
+ */
+final class KeyIndex {
+
+    private String[] keys = new String[8];
+    private int[] slots = new int[16];
+    private int size;
+
+    /**
+     * Adds the given key, unless it has already been added.
+     *
+     * @param key the key to add
+     * @return the position of the key
+     */
+    int add(String key) {
+        int position = indexOf(key);
+        if (position >= 0) {
+            return position;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+        }
+        if (2 * (size + 1) > slots.length) {
+            rehash(2 * slots.length);
+        }
+        keys[size] = key;
+        place(size);
+        return size++;
+    }
+
+    /**
+     * Returns the position of the given key.
+     *
+     * @param key the key to look up
+     * @return the position of the key, or -1 if the key has not been added
+     */
+    int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (keys[entry - 1].equals(key)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    String keyAt(int position) {
+        return keys[position];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Releases the unused capacity of the key array once all keys have been added.
+     */
+    void trim() {
+        keys = Arrays.copyOf(keys, size);
+    }
+
+    /**
+     * Returns a read-only view of the keys, in the order in which they were added.
+     *
+     * @return the keys
+     */
+    Set<String> keys() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+
+                    private int position;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < size;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (position == size) {
+                            throw new NoSuchElementException();
+                        }
+                        return keys[position++];
+                    }
+
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return indexOf(o) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private void rehash(int slotCount) {
+        slots = new int[slotCount];
+        for (int position = 0; position < size; position++) {
+            place(position);
+        }
+    }
+
+    private void place(int position) {
+        // slots hold the position plus one, such that 0 marks an empty slot
+        int mask = slots.length - 1;
+        int slot = hash(keys[position]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = position + 1;
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+}
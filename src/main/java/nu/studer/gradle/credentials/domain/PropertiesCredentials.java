@@ -0,0 +1,341 @@
+package nu.studer.gradle.credentials.domain;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reads credentials in properties format from a file in a single pass, see {@link FileBuffers#read(File)}. The pass only indexes the offset of the line of each key in a table
+ * of hashes and offsets, without holding on to the keys. The key and the value of an entry are parsed from the buffer when the entry is looked up. The index takes a few ints
+ * per entry, hence its memory is proportional to the number of entries of the file rather than to the size of the file, and for large, memory-mapped files only the pages that
+ * contain the looked up entries are paged in.
+ * <p>
+ * The file is parsed according to the format of {@link java.util.Properties#load(java.io.InputStream)}: ISO 8859-1 encoding, comment lines, line continuations, and escape
+ * sequences. If a key occurs more than once, the last occurrence wins, while the entry keeps the position of the first occurrence.
+ * <p>
+ * The index is filled once when reading the file and is read-only thereafter. Once filled, it can be read concurrently by any number of threads, provided the map was published
+ * safely.
+ */
+final class PropertiesCredentials extends AbstractMap<String, String> {
+
+    private final ByteBuffer buffer;
+    private int[] offsets = new int[8];
+    private int[] hashes = new int[8];
+    private int[] slots = new int[16];
+    private int size;
+
+    private PropertiesCredentials(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        // index the offset of each logical line by the hash of its key, without parsing the values
+        StringBuilder line = new StringBuilder();
+        int offset = 0;
+        int next;
+        while ((next = readLine(offset, line)) >= 0) {
+            add(unescape(line, 0, keyEnd(line)), offset);
+            offset = next;
+        }
+        offsets = Arrays.copyOf(offsets, size);
+        hashes = Arrays.copyOf(hashes, size);
+    }
+
+    /**
+     * Reads the given credentials file in properties format and indexes its keys. The returned map is read-only and parses the entries directly from the buffer.
+     *
+     * @param file the credentials file in properties format
+     * @return the read-only map of the encrypted credentials
+     */
+    static PropertiesCredentials read(File file) {
+        return new PropertiesCredentials(FileBuffers.read(file));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && find((String) key, new StringBuilder()) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        return find((String) key, line) >= 0 ? valueOf(line) : null;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Map.Entry<String, String>> entries = entrySet().iterator();
+                return new Iterator<String>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return entries.next().getKey();
+                    }
+
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+
+                    private final StringBuilder line = new StringBuilder();
+                    private int position;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < size;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (position == size) {
+                            throw new NoSuchElementException();
+                        }
+                        readLine(offsets[position++], line);
+                        return new SimpleImmutableEntry<>(keyOf(line), valueOf(line));
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    private void add(String key, int offset) {
+        // a repeated key keeps its position and points to the line of its last occurrence
+        int position = find(key, new StringBuilder());
+        if (position >= 0) {
+            offsets[position] = offset;
+            return;
+        }
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+        }
+        if (2 * (size + 1) > slots.length) {
+            rehash(2 * slots.length);
+        }
+        offsets[size] = offset;
+        hashes[size] = hash(key);
+        place(size);
+        size++;
+    }
+
+    /**
+     * Returns the position of the given key, leaving the logical line of the key in the given builder if the key is found.
+     */
+    private int find(String key, StringBuilder line) {
+        int hash = hash(key);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            int position = entry - 1;
+            if (hashes[position] == hash) {
+                readLine(offsets[position], line);
+                if (keyOf(line).equals(key)) {
+                    return position;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash(int slotCount) {
+        slots = new int[slotCount];
+        for (int position = 0; position < size; position++) {
+            place(position);
+        }
+    }
+
+    private void place(int position) {
+        // slots hold the position plus one, such that 0 marks an empty slot
+        int mask = slots.length - 1;
+        int slot = hashes[position] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = position + 1;
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String keyOf(CharSequence line) {
+        return unescape(line, 0, keyEnd(line));
+    }
+
+    private static String valueOf(CharSequence line) {
+        return unescape(line, valueStart(line, keyEnd(line)), line.length());
+    }
+
+    /**
+     * Reads the next logical line starting at the given offset into the given builder, skipping blank lines and comment lines, and joining continued lines.
+     *
+     * @return the offset after the logical line, or -1 if there is no further logical line
+     */
+    private int readLine(int offset, StringBuilder line) {
+        line.setLength(0);
+        int limit = buffer.limit();
+        int position = offset;
+
+        // skip leading whitespace, blank lines, and comment lines
+        while (position < limit) {
+            char c = charAt(position);
+            if (isWhitespace(c) || c == '\r' || c == '\n') {
+                position++;
+            } else if (c == '#' || c == '!') {
+                while (position < limit && charAt(position) != '\r' && charAt(position) != '\n') {
+                    position++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (position == limit) {
+            return -1;
+        }
+
+        // read up to the end of the line, continuing on the next line if the line ends with an unescaped backslash
+        boolean escaped = false;
+        while (position < limit) {
+            char c = charAt(position++);
+            if (c == '\r' || c == '\n') {
+                if (!escaped) {
+                    break;
+                }
+                line.setLength(line.length() - 1);
+                if (c == '\r' && position < limit && charAt(position) == '\n') {
+                    position++;
+                }
+                while (position < limit && isWhitespace(charAt(position))) {
+                    position++;
+                }
+                escaped = false;
+            } else {
+                line.append(c);
+                escaped = c == '\\' && !escaped;
+            }
+        }
+        if (escaped && position == limit) {
+            line.setLength(line.length() - 1);
+        }
+        return position;
+    }
+
+    private char charAt(int position) {
+        // the properties format is encoded in ISO 8859-1, where each byte maps to the character of the same value
+        return (char) (buffer.get(position) & 0xff);
+    }
+
+    private static int keyEnd(CharSequence line) {
+        boolean escaped = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (!escaped && (c == '=' || c == ':' || isWhitespace(c))) {
+                return i;
+            }
+            escaped = c == '\\' && !escaped;
+        }
+        return line.length();
+    }
+
+    private static int valueStart(CharSequence line, int keyEnd) {
+        // skip the whitespace around the key-value separator, which is either a single '=' or ':', or only whitespace
+        boolean separator = false;
+        int i = keyEnd;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (!separator && (c == '=' || c == ':')) {
+                separator = true;
+            } else if (!isWhitespace(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static String unescape(CharSequence line, int start, int end) {
+        StringBuilder result = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = line.charAt(i++);
+            if (c != '\\' || i == end) {
+                result.append(c);
+                continue;
+            }
+            c = line.charAt(i++);
+            if (c == 'u') {
+                if (i + 4 > end) {
+                    throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                }
+                result.append((char) Integer.parseInt(line.subSequence(i, i + 4).toString(), 16));
+                i += 4;
+            } else if (c == 't') {
+                result.append('\t');
+            } else if (c == 'r') {
+                result.append('\r');
+            } else if (c == 'n') {
+                result.append('\n');
+            } else if (c == 'f') {
+                result.append('\f');
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+}
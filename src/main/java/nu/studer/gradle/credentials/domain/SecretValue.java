@@ -0,0 +1,52 @@
+package nu.studer.gradle.credentials.domain;
+
+import java.nio.CharBuffer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A handle to decrypted credentials that grants scoped access to the decrypted characters, without ever materializing them as an immutable {@link String}.
+ * <p>
+ * The characters are passed as a read-only view of the memoized decrypted credentials of the {@link CredentialsContainer} that created the handle, such that no copy is made.
+ * The view must not be retained beyond the invocation, since the underlying characters are wiped when the container is wiped. A handle stays usable across wipes of its
+ * container: the credentials are decrypted again on the next access.
+ */
+public final class SecretValue {
+
+    private final Supplier<char[]> decrypted;
+
+    SecretValue(Supplier<char[]> decrypted) {
+        this.decrypted = decrypted;
+    }
+
+    /**
+     * Passes a read-only view of the decrypted characters to the given action.
+     *
+     * @param action the action to apply to the decrypted characters
+     */
+    public void use(Consumer<? super CharBuffer> action) {
+        action.accept(view());
+    }
+
+    /**
+     * Passes a read-only view of the decrypted characters to the given function and returns its result. The result must not be derived from the characters in a reversible way.
+     *
+     * @param function the function to apply to the decrypted characters
+     * @param <T> the type of the result
+     * @return the result of the function
+     */
+    public <T> T apply(Function<? super CharBuffer, T> function) {
+        return function.apply(view());
+    }
+
+    private CharBuffer view() {
+        return CharBuffer.wrap(decrypted.get()).asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return "SecretValue[****]";
+    }
+
+}
@@ -1,12 +1,31 @@
 package nu.studer.gradle.util;
 
-import static org.apache.commons.codec.binary.Hex.encodeHex;
+import java.util.Arrays;
 
 /**
  * Utilities related to Base64 encoding.
+ * <p>
+ * The encoding is compatible with the basic encoder of {@link java.util.Base64}: the standard alphabet with padding and without line separators. The decoding is lenient: the
+ * URL-safe alphabet is accepted as well, characters outside of the alphabet like line separators are skipped, and decoding stops at the first padding character.
+ * <p>
+ * All methods are thread-safe and allocate at most the resulting string or byte array. The variants that take a caller-supplied buffer do not allocate at all.
  */
 public final class Base64 {
 
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final char PAD = '=';
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE_TABLE[ALPHABET[i]] = (byte) i;
+        }
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+    }
+
     private Base64() {
     }
 
@@ -17,7 +36,51 @@ public final class Base64 {
      * @return the resulting Base64 string
      */
     public static String encodeBase64(byte[] bytes) {
-        return base64Instance().encodeToString(bytes);
+        char[] chars = new char[encodedLength(bytes.length)];
+        encodeBase64(bytes, 0, bytes.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Encodes the given range of bytes to Base64 characters, written to the given buffer.
+     *
+     * @param src the bytes to encode
+     * @param srcOffset the offset of the first byte to encode
+     * @param length the number of bytes to encode
+     * @param dst the buffer to write the Base64 characters to, with at least {@link #encodedLength(int)} characters remaining after the offset
+     * @param dstOffset the offset of the first character to write
+     * @return the number of characters written
+     */
+    public static int encodeBase64(byte[] src, int srcOffset, int length, char[] dst, int dstOffset) {
+        int d = dstOffset;
+        int end = srcOffset + length;
+        int s = srcOffset;
+        for (; s + 3 <= end; s += 3) {
+            int bits = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8 | (src[s + 2] & 0xff);
+            dst[d++] = ALPHABET[bits >>> 18 & 0x3f];
+            dst[d++] = ALPHABET[bits >>> 12 & 0x3f];
+            dst[d++] = ALPHABET[bits >>> 6 & 0x3f];
+            dst[d++] = ALPHABET[bits & 0x3f];
+        }
+        int remaining = end - s;
+        if (remaining > 0) {
+            int bits = (src[s] & 0xff) << 16 | (remaining == 2 ? (src[s + 1] & 0xff) << 8 : 0);
+            dst[d++] = ALPHABET[bits >>> 18 & 0x3f];
+            dst[d++] = ALPHABET[bits >>> 12 & 0x3f];
+            dst[d++] = remaining == 2 ? ALPHABET[bits >>> 6 & 0x3f] : PAD;
+            dst[d++] = PAD;
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * Returns the number of Base64 characters that the given number of bytes are encoded to.
+     *
+     * @param length the number of bytes to encode
+     * @return the number of Base64 characters
+     */
+    public static int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
     }
 
     /**
@@ -27,7 +90,86 @@ public final class Base64 {
      * @return the resulting bytes
      */
     public static byte[] decodeBase64(String string) {
-        return base64Instance().decode(string);
+        return decodeBase64(string, 0, string.length());
+    }
+
+    /**
+     * Decodes the given range of Base64 characters to bytes.
+     *
+     * @param chars the Base64 characters to decode
+     * @param start the index of the first character to decode
+     * @param end the index after the last character to decode
+     * @return the resulting bytes
+     */
+    public static byte[] decodeBase64(CharSequence chars, int start, int end) {
+        byte[] bytes = new byte[decodedLength(chars, start, end)];
+        decodeBase64(chars, start, end, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Decodes the given range of Base64 characters to bytes, written to the given buffer.
+     *
+     * @param chars the Base64 characters to decode
+     * @param start the index of the first character to decode
+     * @param end the index after the last character to decode
+     * @param dst the buffer to write the bytes to, with at least {@link #decodedLength(CharSequence, int, int)} bytes remaining after the offset
+     * @param dstOffset the offset of the first byte to write
+     * @return the number of bytes written
+     */
+    public static int decodeBase64(CharSequence chars, int start, int end, byte[] dst, int dstOffset) {
+        int d = dstOffset;
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c == PAD) {
+                break;
+            }
+            int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+            if (value < 0) {
+                continue;
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                dst[d++] = (byte) (bits >> 16);
+                dst[d++] = (byte) (bits >> 8);
+                dst[d++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+
+        // decode the trailing characters, where a single trailing character does not carry a complete byte
+        if (count == 2) {
+            dst[d++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            dst[d++] = (byte) (bits >> 10);
+            dst[d++] = (byte) (bits >> 2);
+        }
+        return d - dstOffset;
+    }
+
+    /**
+     * Returns the number of bytes that the given range of Base64 characters are decoded to.
+     *
+     * @param chars the Base64 characters to decode
+     * @param start the index of the first character to decode
+     * @param end the index after the last character to decode
+     * @return the number of bytes
+     */
+    public static int decodedLength(CharSequence chars, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c == PAD) {
+                break;
+            }
+            if (c < DECODE_TABLE.length && DECODE_TABLE[c] >= 0) {
+                count++;
+            }
+        }
+        return count / 4 * 3 + (count % 4 == 0 ? 0 : count % 4 - 1);
     }
 
     /**
@@ -37,11 +179,26 @@ public final class Base64 {
      * @return the resulting string
      */
     public static String printHexBinary(byte[] bytes) {
-        return new String(encodeHex(bytes, false));
+        char[] chars = new char[bytes.length * 2];
+        printHexBinary(bytes, chars, 0);
+        return new String(chars);
     }
 
-    private static org.apache.commons.codec.binary.Base64 base64Instance() {
-        return new org.apache.commons.codec.binary.Base64(0, new byte[]{'\r', '\n'}, false);
+    /**
+     * Print the given bytes as HEX characters, written to the given buffer.
+     *
+     * @param bytes the bytes to covert to HEX characters
+     * @param dst the buffer to write the HEX characters to, with at least two characters per byte remaining after the offset
+     * @param dstOffset the offset of the first character to write
+     * @return the number of characters written
+     */
+    public static int printHexBinary(byte[] bytes, char[] dst, int dstOffset) {
+        int d = dstOffset;
+        for (byte b : bytes) {
+            dst[d++] = HEX_DIGITS[b >> 4 & 0x0f];
+            dst[d++] = HEX_DIGITS[b & 0x0f];
+        }
+        return d - dstOffset;
     }
 
 }
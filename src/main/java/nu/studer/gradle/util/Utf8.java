@@ -0,0 +1,83 @@
+package nu.studer.gradle.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Utilities related to UTF-8 encoding of secrets. Unlike the conversions through {@link String}, no immutable copies of the secrets are created, and all intermediate buffers
+ * are overwritten before they are discarded.
+ */
+public final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * Encodes the given characters to UTF-8 bytes.
+     *
+     * @param chars the characters to encode
+     * @return the resulting bytes, to be wiped by the caller
+     */
+    public static byte[] encode(char[] chars) {
+        ByteBuffer buffer = encode(CharBuffer.wrap(chars));
+        try {
+            return Arrays.copyOf(buffer.array(), buffer.limit());
+        } finally {
+            wipe(buffer);
+        }
+    }
+
+    /**
+     * Encodes the remaining characters of the given buffer to UTF-8 bytes.
+     *
+     * @param chars the characters to encode
+     * @return a heap buffer with the resulting bytes between position and limit, to be wiped by the caller
+     */
+    public static ByteBuffer encode(CharBuffer chars) {
+        try {
+            return StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .encode(chars);
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes the given UTF-8 bytes to characters.
+     *
+     * @param bytes the bytes to decode
+     * @return the resulting characters, to be wiped by the caller
+     */
+    public static char[] decode(byte[] bytes) {
+        CharBuffer buffer;
+        try {
+            buffer = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(ByteBuffer.wrap(bytes));
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            return Arrays.copyOf(buffer.array(), buffer.limit());
+        } finally {
+            Arrays.fill(buffer.array(), '\0');
+        }
+    }
+
+    /**
+     * Overwrites the entire backing array of the given heap buffer.
+     *
+     * @param buffer the buffer to wipe
+     */
+    public static void wipe(ByteBuffer buffer) {
+        Arrays.fill(buffer.array(), (byte) 0);
+    }
+
+}
@@ -56,6 +56,19 @@ buildCache {
             .build()
     }
 
+    protected BuildResult runWithEnvironmentAndArguments(Map<String, String> environment, String... args) {
+        GradleRunner.create()
+            .withPluginClasspath()
+            .withTestKitDir(testKitDir)
+            .withProjectDir(workspaceDir)
+            .withEnvironment(System.getenv() + environment)
+            .withArguments(args)
+            .withGradleVersion(gradleVersion.version)
+            .withDebug(isDebuggerAttached())
+            .forwardOutput()
+            .build()
+    }
+
     protected BuildResult runAndFailWithArguments(String... args) {
         GradleRunner.create()
             .withPluginClasspath()
@@ -1,10 +1,17 @@
 package nu.studer.gradle.credentials
 
+import groovy.io.FileType
+import nu.studer.gradle.credentials.domain.CredentialsAgent
 import org.gradle.testkit.runner.TaskOutcome
 import org.gradle.testkit.runner.internal.PluginUnderTestMetadataReading
+import org.gradle.util.GradleVersion
+import spock.lang.Requires
 import spock.lang.TempDir
 import spock.lang.Unroll
 
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+
 @Unroll
 class CredentialsFuncTest extends BaseFuncTest {
 
@@ -39,9 +46,24 @@ class CredentialsFuncTest extends BaseFuncTest {
         result.output.contains('Credentials value must not be null')
     }
 
+    void "cannot remove credentials with null key"() {
+        given:
+        buildFile()
+
+        when:
+        def result = runAndFailWithArguments('removeCredentials', '-i')
+
+        then:
+        result.task(':removeCredentials').outcome == TaskOutcome.FAILED
+        result.output.contains('Credentials key must not be null')
+    }
+
     void "cannot access credentials added in same build execution"() {
         given:
         buildFile()
+        buildFile << """
+println "configured value: \${credentials.forKey('someKey')}"
+"""
 
         when:
         def result = runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue', 'printValue', '-i')
@@ -64,6 +86,252 @@ class CredentialsFuncTest extends BaseFuncTest {
         result.output.contains('value: someValue')
     }
 
+    void "can access credentials changed in same build execution if reloading is enabled"() {
+        given:
+        buildFile()
+
+        when:
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'oldValue', '-i')
+        def result = runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue', 'printValue', '-PcredentialsReload=true', '-i')
+
+        then:
+        result.task(':addCredentials').outcome == TaskOutcome.SUCCESS
+        result.output.contains('value: someValue')
+    }
+
+    void "does not rewrite the credentials file when adding unchanged or removing absent credentials"() {
+        given:
+        buildFile()
+        def credentialsFile = new File(testKitDir, 'gradle.encrypted.properties')
+
+        when:
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue')
+        def content = credentialsFile.text
+        def originalFileKey = fileKey(credentialsFile)
+        def result = runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue')
+
+        then:
+        result.task(':addCredentials').outcome == TaskOutcome.SUCCESS
+        credentialsFile.text == content
+        fileKey(credentialsFile) == originalFileKey
+
+        when:
+        result = runWithArguments('removeCredentials', '--key', 'otherKey')
+
+        then:
+        result.task(':removeCredentials').outcome == TaskOutcome.SUCCESS
+        credentialsFile.text == content
+        fileKey(credentialsFile) == originalFileKey
+
+        when:
+        result = runWithArguments('addCredentials', '--key', 'someKey', '--value', 'changedValue')
+
+        then:
+        result.task(':addCredentials').outcome == TaskOutcome.SUCCESS
+        credentialsFile.text != content
+
+        when:
+        result = runWithArguments('removeCredentials', '--key', 'someKey')
+
+        then:
+        result.task(':removeCredentials').outcome == TaskOutcome.SUCCESS
+        credentialsFile.text.readLines().findAll { !it.startsWith('#') }.isEmpty()
+    }
+
+    void "can add credentials from several projects concurrently through the worker API"() {
+        given:
+        buildFile()
+        settingsFile << """
+include 'sub1', 'sub2'
+"""
+        ['sub1', 'sub2'].each { project ->
+            file("${project}/build.gradle") << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+tasks.named('addCredentials') {
+    credentialsKey = '${project}Key'
+    credentialsValue = '${project}Value'
+}
+"""
+        }
+
+        when:
+        def result = runWithArguments(':sub1:addCredentials', ':sub2:addCredentials', '--parallel')
+
+        then:
+        result.task(':sub1:addCredentials').outcome == TaskOutcome.SUCCESS
+        result.task(':sub2:addCredentials').outcome == TaskOutcome.SUCCESS
+        new nu.studer.gradle.credentials.domain.CredentialsPersistenceManager(new File(testKitDir, 'gradle.encrypted.properties')).readCredentials()
+            .stringPropertyNames() == ['sub1Key', 'sub2Key'] as Set
+    }
+
+    void "can add and remove many credentials at once from a file"() {
+        given:
+        buildFile << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+task printValues {
+  doLast {
+    (1..50).each { println "value \$it: \${credentials.forKey('someKey' + it)}" }
+    println "value: \${credentials.forKey('someKey')}"
+    println "separator value: \${credentials.forKey('some:Key')}"
+  }
+}
+"""
+        file('secrets.properties') << (1..50).collect { "someKey$it=someValue$it" }.join('\n') + '\nsome\\:Key=separatorValue'
+        file('obsolete.properties') << (1..49).collect { "someKey$it" }.join('\n') + '\n\nsome:Key\n'
+
+        when:
+        runWithArguments('addCredentials', '--from-file', 'secrets.properties', '--key', 'someKey', '--value', 'someValue')
+        def result = runWithArguments('printValues')
+
+        then:
+        (1..50).every { result.output.contains("value $it: someValue$it") }
+        result.output.contains('value: someValue')
+        result.output.contains('separator value: separatorValue')
+
+        when:
+        runWithArguments('removeCredentials', '--from-file', 'obsolete.properties')
+        result = runWithArguments('printValues')
+
+        then:
+        (1..49).every { result.output.contains("value $it: null") }
+        result.output.contains('value 50: someValue50')
+        result.output.contains('value: someValue')
+        result.output.contains('separator value: null')
+    }
+
+    void "can add and remove credentials through the journal of the credentials file"() {
+        given:
+        buildFile()
+        def credentialsFile = new File(testKitDir, 'gradle.encrypted.properties')
+        def journalFile = new File(testKitDir, 'gradle.encrypted.properties.journal')
+        journalFile.delete()
+
+        when:
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue', '-PcredentialsJournalThreshold=4096')
+        def result = runWithArguments('printValue')
+
+        then:
+        !credentialsFile.exists()
+        journalFile.exists()
+        result.output.contains('value: someValue')
+
+        when:
+        runWithArguments('removeCredentials', '--key', 'someKey', '-PcredentialsJournalThreshold=1')
+        result = runWithArguments('printValue')
+
+        then:
+        credentialsFile.exists()
+        !journalFile.exists()
+        result.output.contains('value: null')
+    }
+
+    void "can access credentials after migrating the credentials file to the binary format"() {
+        given:
+        buildFile()
+
+        when:
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue')
+        def result = runWithArguments('migrateCredentials', '--format', 'binary')
+
+        then:
+        result.task(':migrateCredentials').outcome == TaskOutcome.SUCCESS
+
+        when:
+        runWithArguments('addCredentials', '--key', 'otherKey', '--value', 'otherValue')
+        result = runWithArguments('printValue', '-i')
+
+        then:
+        result.task(':printValue').outcome == TaskOutcome.SUCCESS
+        result.output.contains('value: someValue')
+        new File(testKitDir, 'gradle.encrypted.properties').bytes[0..3] == [0 as byte] + 'GCR'.bytes.toList()
+
+        when:
+        runWithArguments('migrateCredentials', '-PcredentialsFormat=properties')
+
+        then:
+        new File(testKitDir, 'gradle.encrypted.properties').readLines().collect { it.split('=')[0] } == ['someKey', 'otherKey']
+    }
+
+    void "can access and re-encrypt credentials encrypted in the legacy format"() {
+        given:
+        buildFile()
+
+        and:
+        def credentialsFile = new File(testKitDir, 'gradle.encrypted.properties')
+        def legacyEncryption = nu.studer.gradle.credentials.domain.Encryption.createEncryption(CredentialsPlugin.DEFAULT_PASSPHRASE.toCharArray())
+        credentialsFile.text = "someKey=${legacyEncryption.encrypt('someValue')}\n"
+
+        when:
+        def result = runWithArguments('printValue', '-i')
+
+        then:
+        result.output.contains('value: someValue')
+
+        when:
+        result = runWithArguments('reencryptCredentials', '--iterations', '1000', '-i')
+
+        then:
+        result.task(':reencryptCredentials').outcome == TaskOutcome.SUCCESS
+        result.output.contains('Re-encrypted 1 of 1 credentials with PBKDF2WithHmacSHA256 with 1000 iterations')
+        new nu.studer.gradle.credentials.domain.CredentialsPersistenceManager(credentialsFile).readCredentials().getProperty('someKey').startsWith('v2:')
+
+        when:
+        runWithArguments('addCredentials', '--key', 'otherKey', '--value', 'otherValue')
+        result = runWithArguments('printValue', '-d')
+
+        then:
+        result.output.contains('value: someValue')
+        result.output.count('Derive secret key for credentials encryptor') == 1
+        result.output.contains('Derive secret key for credentials encryptor: PBKDF2WithHmacSHA256 with 1000 iterations')
+    }
+
+    void "can rotate the passphrase of the credentials"() {
+        given:
+        buildFile()
+
+        when:
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue')
+        runWithArguments('addCredentials', '--key', 'otherKey', '--value', 'otherValue')
+        def result = runWithEnvironmentAndArguments([(CredentialsPlugin.CREDENTIALS_NEW_PASSPHRASE_ENVIRONMENT_VARIABLE): 'newPassphrase'], 'rotateCredentials')
+
+        then:
+        result.task(':rotateCredentials').outcome == TaskOutcome.SUCCESS
+        result.output.contains('Rotated 2 credentials in')
+        !new File(testKitDir, 'gradle.encrypted.properties').exists()
+        new File(testKitDir, 'gradle.encrypted.properties.retired').exists()
+
+        when:
+        result = runWithArguments('printValue', '-PcredentialsPassphrase=newPassphrase')
+
+        then:
+        result.output.contains('value: someValue')
+
+        when:
+        result = runAndFailWithArguments('rotateCredentials', '-PcredentialsPassphrase=newPassphrase', '-PcredentialsNewPassphrase=newPassphrase')
+
+        then:
+        result.task(':rotateCredentials').outcome == TaskOutcome.FAILED
+        result.output.contains('New passphrase must differ from the current passphrase')
+    }
+
+    void "cannot add credentials from a file that does not exist"() {
+        given:
+        buildFile()
+
+        when:
+        def result = runAndFailWithArguments('addCredentials', '--from-file', 'unknown.properties')
+
+        then:
+        result.task(':addCredentials').outcome == TaskOutcome.FAILED
+        result.output.contains('File with the credentials to add does not exist')
+    }
+
     void "can access credentials with dollar character in value"() {
         given:
         buildFile()
@@ -116,6 +384,59 @@ class CredentialsFuncTest extends BaseFuncTest {
         result.output.contains('value: null')
     }
 
+    void "cannot access credentials with passphrase set only as project property of a subproject"() {
+        given:
+        buildFile << """
+plugins {
+    id 'nu.studer.credentials'
+}
+"""
+        settingsFile << """
+include 'sub1', 'sub2'
+"""
+        file('sub1/gradle.properties') << """
+credentialsPassphrase=xyz
+"""
+        file('sub1/build.gradle') << """
+apply plugin: 'nu.studer.credentials'
+
+println "sub1 value: \${credentials.forKey('someKey')}"
+"""
+        file('sub2/build.gradle') << """
+ext.credentialsPassphrase = 'xyz'
+apply plugin: 'nu.studer.credentials'
+
+println "sub2 value: \${credentials.forKey('someKey')}"
+"""
+
+        when:
+        def result = runAndFailWithArguments(':sub1:help')
+
+        then:
+        result.output.contains("The passphrase set through the 'credentialsPassphrase' property of project ':sub1' differs from the passphrase of the Gradle properties")
+
+        when:
+        result = runAndFailWithArguments(':sub1:help', '--configuration-cache')
+
+        then:
+        result.output.contains("The passphrase set through the 'credentialsPassphrase' property of project ':sub1' differs from the passphrase of the Gradle properties")
+
+        when:
+        new File(workspaceDir, 'sub1/gradle.properties').delete()
+        result = runAndFailWithArguments(':sub2:help')
+
+        then:
+        result.output.contains("The passphrase set through the 'credentialsPassphrase' property of project ':sub2' differs from the passphrase of the Gradle properties")
+
+        when:
+        file('sub1/gradle.properties') << 'credentialsPassphrase=xyz'
+        result = runWithArguments(':sub1:help', ':sub2:help', '-PcredentialsPassphrase=xyz')
+
+        then:
+        result.task(':sub1:help').outcome == TaskOutcome.SUCCESS
+        result.task(':sub2:help').outcome == TaskOutcome.SUCCESS
+    }
+
     void "can configure custom location of password file"() {
         given:
         buildFile()
@@ -201,6 +522,401 @@ println "value: \$val"
         result.output.contains('value: someValue')
     }
 
+    void "can inherit the credentials container of the settings in all projects that do not override the configuration"() {
+        given:
+        buildFile << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+println "root value: \${credentials.forKey('someKey')}"
+"""
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue')
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'otherValue', '-PcredentialsLocation=other')
+
+        and:
+        settingsFile << """
+buildscript {
+    dependencies {
+        classpath files(${implClasspath()})
+    }
+}
+
+apply plugin: 'nu.studer.credentials'
+
+include 'sub1', 'sub2'
+
+gradle.allprojects {
+    ext.settingsCredentials = settings.credentials
+}
+"""
+        file('sub1/build.gradle') << """
+apply plugin: 'nu.studer.credentials'
+
+println "sub1 value: \${credentials.forKey('someKey')}, inherited: \${credentials.is(settingsCredentials)}"
+"""
+        file('sub2/gradle.properties') << """
+credentialsLocation=../other
+"""
+        file('sub2/build.gradle') << """
+apply plugin: 'nu.studer.credentials'
+
+println "sub2 value: \${credentials.forKey('someKey')}, inherited: \${credentials.is(settingsCredentials)}"
+"""
+
+        when:
+        def result = runWithArguments('help', '-d')
+
+        then:
+        result.output.contains('root value: someValue')
+        result.output.contains('sub1 value: someValue, inherited: true')
+        result.output.contains('sub2 value: otherValue, inherited: false')
+        result.output.count('Inherit credentials container from settings') == 2
+        result.output.count('Derive secret key for credentials encryptor') == 2
+    }
+
+    void "can prefetch credentials in settings.gradle and access them from projects"() {
+        given:
+        buildFile << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+println "value: \${credentials.forKey('someKey')}"
+"""
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue')
+
+        and:
+        settingsFile << """
+buildscript {
+    dependencies {
+        classpath files(${implClasspath()})
+    }
+}
+
+apply plugin: 'nu.studer.credentials'
+
+credentials.prefetch('someKey', 'unknownKey')
+"""
+
+        when:
+        def result = runWithArguments('help', '-d')
+
+        then:
+        result.output.contains('value: someValue')
+        result.output.contains('thread(s) to prefetch credentials')
+        result.output.count('Derive secret key for credentials encryptor') == 1
+    }
+
+    void "can access credentials from all projects of a multi-project build with the key derived only once"() {
+        given:
+        buildFile()
+        settingsFile << """
+include 'sub1', 'sub2'
+"""
+        file('sub1/build.gradle') << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+String val = credentials.forKey('someKey')
+println "sub1 value: \$val"
+"""
+        file('sub2/build.gradle') << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+String val = credentials.forKey('someKey')
+println "sub2 value: \$val"
+"""
+
+        and:
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue', '-i')
+
+        when:
+        def result = runWithArguments('help', '-d')
+
+        then:
+        result.output.contains('sub1 value: someValue')
+        result.output.contains('sub2 value: someValue')
+        result.output.count('Derive secret key for credentials encryptor') == 1
+    }
+
+    void "can access credentials of several mounted stores with the key derived only for the queried stores"() {
+        given:
+        buildFile << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+task printValues {
+  def lazyValue = credentials.provider('teamKey')
+  doLast {
+    println "team value: \${credentials.forKey('teamKey')}"
+    println "shared value: \${credentials.forStore('shared').forKey('sharedKey')}"
+    println "lazy value: \${lazyValue.get()}"
+  }
+}
+"""
+        def teamStore = ['-PcredentialsPassphrase=teamPassphrase', '-PcredentialsLocation=team']
+        def sharedStore = ['-PcredentialsPassphrase=sharedPassphrase', '-PcredentialsLocation=shared']
+        def stores = ['-PcredentialsStores=team,shared', '-PcredentialsPassphrase.team=teamPassphrase', '-PcredentialsLocation.team=team',
+                      '-PcredentialsPassphrase.shared=sharedPassphrase', '-PcredentialsLocation.shared=shared']
+
+        and:
+        runWithArguments(['addCredentials', '--key', 'teamKey', '--value', 'teamValue', *teamStore] as String[])
+        runWithArguments(['addCredentials', '--key', 'sharedKey', '--value', 'sharedValue', *sharedStore] as String[])
+
+        when:
+        def result = runWithArguments(['help', *stores, '-d'] as String[])
+
+        then:
+        !result.output.contains('Derive secret key for credentials encryptor')
+
+        when:
+        result = runWithArguments(['printValues', *stores, '-d'] as String[])
+
+        then:
+        result.output.contains('team value: teamValue')
+        result.output.contains('shared value: sharedValue')
+        result.output.contains('lazy value: teamValue')
+        result.output.count('Derive secret key for credentials encryptor') == 2
+    }
+
+    void "can report the statistics of the credentials accesses of a build"() {
+        given:
+        buildFile()
+        settingsFile << """
+include 'sub1', 'sub2'
+"""
+        ['sub1', 'sub2'].each {
+            file("$it/build.gradle") << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+println "\${project.name} value: \${credentials.forKey('someKey')}"
+"""
+        }
+        file('sub2/gradle.properties') << 'credentialsReportFile=build/sub2-report.json'
+
+        and:
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue')
+
+        when:
+        def result = runWithArguments('help', '-PcredentialsReportFile=build/credentials-report.json', '-i')
+
+        then:
+        result.output.contains('sub1 value: someValue')
+        result.output.contains('Credentials: 1 key derivation(s) in')
+
+        and:
+        def report = new groovy.json.JsonSlurper().parse(file('build/credentials-report.json'))
+        report.keyDerivations == 1
+        report.fileReads == 1
+        report.bytesRead > 0
+        report.snapshotReuses == 1
+        report.decryptions == 2
+        report.cacheHits == 0
+        !new File(workspaceDir, 'sub2/build/sub2-report.json').exists()
+        !new File(workspaceDir, 'build/sub2-report.json').exists()
+    }
+
+    void "can reuse the derived key across builds of the same daemon"() {
+        given:
+        buildFile()
+
+        and:
+        def passphrase = '-PcredentialsPassphrase=' + UUID.randomUUID()
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue', passphrase)
+
+        when:
+        def result = runWithArguments('printValue', passphrase, '-PcredentialsKeyCacheTtl=600', '-PcredentialsReportFile=build/first.json', '-d')
+
+        then:
+        result.output.contains('value: someValue')
+        result.output.count('Derive secret key for credentials encryptor') == 1
+        new groovy.json.JsonSlurper().parse(file('build/first.json')).keyDerivations == 1
+
+        when:
+        result = runWithArguments('printValue', passphrase, '-PcredentialsKeyCacheTtl=600', '-PcredentialsReportFile=build/second.json', '-d')
+
+        then:
+        result.output.contains('value: someValue')
+        !result.output.contains('Derive secret key for credentials encryptor')
+        def report = new groovy.json.JsonSlurper().parse(file('build/second.json'))
+        report.keyDerivations == 0
+        report.keyCacheHits == 1
+    }
+
+    void "can access credentials through a running credentials agent without reading the credentials file"() {
+        given:
+        buildFile()
+        runWithArguments('addCredentials', '--key', 'someKey', '--value', 'someValue', '-PcredentialsLocation=creds')
+        def agent = CredentialsAgent.start(new File(workspaceDir, 'creds/gradle.encrypted.properties'), CredentialsPlugin.DEFAULT_PASSPHRASE.toCharArray())
+
+        when:
+        def result = runWithArguments('printValue', '-PcredentialsLocation=creds', '-PcredentialsBackend=agent', '-PcredentialsReportFile=build/agent.json')
+
+        then:
+        result.output.contains('value: someValue')
+        def report = new groovy.json.JsonSlurper().parse(file('build/agent.json'))
+        report.keyDerivations == 0
+        report.fileReads == 0
+        report.decryptions == 1
+
+        when:
+        agent.close()
+        result = runWithArguments('printValue', '-PcredentialsLocation=creds', '-PcredentialsBackend=agent')
+
+        then:
+        result.output.contains('No credentials agent is running')
+        result.output.contains('value: someValue')
+
+        cleanup:
+        agent?.close()
+    }
+
+    @Requires({ determineGradleVersion() >= GradleVersion.version('7.4') })
+    void "can add and access credentials lazily with the configuration cache"() {
+        given:
+        buildFile << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+abstract class PrintValue extends DefaultTask {
+    @Internal
+    abstract Property<String> getValue()
+
+    @TaskAction
+    void print() {
+        println "value: \${value.orNull}"
+    }
+}
+
+tasks.register('printValue', PrintValue) {
+    value = credentials.provider('someKey')
+}
+"""
+
+        when:
+        def result = runWithArguments('addCredentials', '-PcredentialsKey=someKey', '-PcredentialsValue=someValue', '-PcredentialsPassphrase=mySecretPassphrase', '--configuration-cache', *unencryptedConfigurationCache())
+
+        then:
+        result.task(':addCredentials').outcome == TaskOutcome.SUCCESS
+
+        when:
+        result = runWithArguments('printValue', '-PcredentialsPassphrase=mySecretPassphrase', '--configuration-cache', *unencryptedConfigurationCache())
+
+        then:
+        result.task(':printValue').outcome == TaskOutcome.SUCCESS
+        result.output.contains('value: someValue')
+
+        when:
+        result = runWithArguments('printValue', '-PcredentialsPassphrase=mySecretPassphrase', '--configuration-cache', *unencryptedConfigurationCache())
+
+        then:
+        result.task(':printValue').outcome == TaskOutcome.SUCCESS
+        result.output.contains('Reusing configuration cache.')
+        result.output.contains('value: someValue')
+
+        and:
+        !configurationCacheContains('someValue')
+        configurationCacheContains('someKey')
+    }
+
+    @Requires({ determineGradleVersion() >= GradleVersion.version('7.4') })
+    void "can add and remove credentials through project properties with the configuration cache"() {
+        given:
+        buildFile()
+
+        when:
+        def result = runWithArguments('addCredentials', '-PcredentialsKey=someKey', '-PcredentialsValue=someValue', '--configuration-cache', *unencryptedConfigurationCache())
+
+        then:
+        result.task(':addCredentials').outcome == TaskOutcome.SUCCESS
+        !configurationCacheContains('someValue')
+
+        when:
+        result = runWithArguments('printValue', '-i')
+
+        then:
+        result.output.contains('value: someValue')
+
+        when:
+        result = runWithArguments('removeCredentials', '-PcredentialsKey=someKey', '--configuration-cache')
+
+        then:
+        result.task(':removeCredentials').outcome == TaskOutcome.SUCCESS
+
+        when:
+        result = runWithArguments('printValue', '-i')
+
+        then:
+        result.output.contains('value: null')
+    }
+
+    @Requires({ determineGradleVersion() >= GradleVersion.version('7.4') })
+    void "does not store the passphrases in the configuration cache"() {
+        given:
+        buildFile << """
+plugins {
+    id 'nu.studer.credentials'
+}
+
+abstract class PrintValue extends DefaultTask {
+    @Internal
+    abstract Property<String> getValue()
+
+    @TaskAction
+    void print() {
+        println "value: \${value.orNull}"
+    }
+}
+
+tasks.register('printValue', PrintValue) {
+    value = credentials.provider('someKey')
+}
+"""
+
+        and:
+        def passphrase = 'passphrase' + UUID.randomUUID()
+        def teamPassphrase = 'passphrase' + UUID.randomUUID()
+        def newPassphrase = 'passphrase' + UUID.randomUUID()
+
+        when:
+        def result = runWithArguments('addCredentials', 'reencryptCredentials', '-PcredentialsKey=someKey', '-PcredentialsValue=someValue', '-PcredentialsPassphrase=' + passphrase,
+            '--configuration-cache', *unencryptedConfigurationCache())
+
+        then:
+        result.task(':addCredentials').outcome == TaskOutcome.SUCCESS
+        result.task(':reencryptCredentials').outcome == TaskOutcome.SUCCESS
+
+        when:
+        runWithArguments('printValue', '-PcredentialsStores=team', '-PcredentialsPassphrase.team=' + teamPassphrase, '-PcredentialsPassphrase=' + passphrase,
+            '--configuration-cache', *unencryptedConfigurationCache())
+        result = runWithArguments('printValue', '-PcredentialsStores=team', '-PcredentialsPassphrase.team=' + teamPassphrase, '-PcredentialsPassphrase=' + passphrase,
+            '--configuration-cache', *unencryptedConfigurationCache())
+
+        then:
+        result.output.contains('Reusing configuration cache.')
+        result.output.contains('value: someValue')
+
+        when:
+        result = runWithEnvironmentAndArguments([(CredentialsPlugin.CREDENTIALS_NEW_PASSPHRASE_ENVIRONMENT_VARIABLE): newPassphrase], 'rotateCredentials',
+            '-PcredentialsPassphrase=' + passphrase, '--configuration-cache', *unencryptedConfigurationCache())
+
+        then:
+        result.task(':rotateCredentials').outcome == TaskOutcome.SUCCESS
+
+        and:
+        !configurationCacheContains(passphrase)
+        !configurationCacheContains(teamPassphrase)
+        !configurationCacheContains(newPassphrase)
+    }
+
     void "tasks are registered lazily"() {
         given:
         buildFile()
@@ -211,6 +927,15 @@ tasks.withType(nu.studer.gradle.credentials.AddCredentialsTask).configureEach {
 tasks.withType(nu.studer.gradle.credentials.RemoveCredentialsTask).configureEach {
     println "configuring \$it"
 }
+tasks.withType(nu.studer.gradle.credentials.MigrateCredentialsTask).configureEach {
+    println "configuring \$it"
+}
+tasks.withType(nu.studer.gradle.credentials.ReencryptCredentialsTask).configureEach {
+    println "configuring \$it"
+}
+tasks.withType(nu.studer.gradle.credentials.RotateCredentialsTask).configureEach {
+    println "configuring \$it"
+}
 """
 
         when:
@@ -221,6 +946,24 @@ tasks.withType(nu.studer.gradle.credentials.RemoveCredentialsTask).configureEach
         !result.output.contains('configuring')
     }
 
+    private static Object fileKey(File file) {
+        // each replacement of the credentials file creates a new file, which is detected through the file key
+        Files.readAttributes(file.toPath(), BasicFileAttributes).fileKey()
+    }
+
+    private static List<String> unencryptedConfigurationCache() {
+        // disable the encryption of the configuration cache entries to be able to inspect their content
+        ['-Dorg.gradle.configuration-cache.internal.encryption=false']
+    }
+
+    private boolean configurationCacheContains(String text) {
+        // only match the text without its last character, since the configuration cache might encode the end of a string in its last character
+        def prefix = text.substring(0, text.length() - 1)
+        def found = false
+        new File(workspaceDir, '.gradle/configuration-cache').eachFileRecurse(FileType.FILES) { found |= new String(it.bytes, 'ISO-8859-1').contains(prefix) }
+        found
+    }
+
     private static def implClasspath() {
         PluginUnderTestMetadataReading.readImplementationClasspath().collect { it.absolutePath.replace('\\', '\\\\') }.collect { "'$it'" }.join(",")
     }
@@ -0,0 +1,146 @@
+package nu.studer.gradle.credentials.domain
+
+import nu.studer.java.util.OrderedProperties
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class BinaryCredentialsTest extends Specification {
+
+    @TempDir
+    File tempDir
+
+    void "testLooksUpSingleCredentialsInBinaryFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def credentials = new OrderedProperties()
+        (1..1000).each { credentials.setProperty("someKey$it".toString(), "someValue$it".toString()) }
+        credentials.setProperty('kéy', 'välue')
+        new CredentialsPersistenceManager(file).storeCredentials(credentials, CredentialsFormat.BINARY)
+
+        when:
+        def snapshot = new CredentialsPersistenceManager(file).readSnapshot()
+
+        then:
+        CredentialsFormat.of(file) == CredentialsFormat.BINARY
+        snapshot.size() == 1001
+        snapshot.get('someKey1') == 'someValue1'
+        snapshot.get('someKey1000') == 'someValue1000'
+        snapshot.get('kéy') == 'välue'
+        snapshot.get('unknownKey') == null
+        !snapshot.containsKey('someKey0')
+    }
+
+    void "testMigratesBetweenPropertiesAndBinaryFormatPreservingOrder"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        file.text = 'b=2\na=1\nc=3\n'
+        def manager = new CredentialsPersistenceManager(file)
+
+        when:
+        manager.migrateCredentials(CredentialsFormat.BINARY)
+
+        then:
+        CredentialsFormat.of(file) == CredentialsFormat.BINARY
+        manager.readCredentials().stringPropertyNames().toList() == ['b', 'a', 'c']
+
+        when:
+        manager.updateCredentials { it.setProperty('d', '4') }
+
+        then:
+        CredentialsFormat.of(file) == CredentialsFormat.BINARY
+        manager.readCredentials().getProperty('d') == '4'
+
+        when:
+        manager.migrateCredentials(CredentialsFormat.PROPERTIES)
+
+        then:
+        CredentialsFormat.of(file) == CredentialsFormat.PROPERTIES
+        file.readLines() == ['b=2', 'a=1', 'c=3', 'd=4']
+    }
+
+    void "testWritesEmptyBinaryFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+
+        when:
+        new CredentialsPersistenceManager(file).storeCredentials(new OrderedProperties(), CredentialsFormat.BINARY)
+
+        then:
+        CredentialsFormat.of(file) == CredentialsFormat.BINARY
+        new CredentialsPersistenceManager(file).readSnapshot().size() == 0
+        new CredentialsPersistenceManager(file).readCredentials().isEmpty()
+    }
+
+    void "testDetectsPropertiesFileStartingWithCharactersOfMagicAsPropertiesFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        file.setText('GCRD=someValue\nGCRKey=otherValue\n', 'ISO-8859-1')
+
+        when:
+        def credentials = new CredentialsPersistenceManager(file).readSnapshot()
+
+        then:
+        CredentialsFormat.of(file) == CredentialsFormat.PROPERTIES
+        credentials.get('GCRD') == 'someValue'
+        credentials.get('GCRKey') == 'otherValue'
+    }
+
+    void "testRejectsCorruptBinaryFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        file.bytes = binaryFile(entries, slots, [])
+
+        when:
+        BinaryCredentials.read(file)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        entries | slots
+        0       | 0
+        0       | 3
+        0       | 1 << 20
+        2       | 2
+        -1      | 2
+    }
+
+    void "testStopsProbingAfterAllSlotsOfCorruptIndex"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def dataOffset = 16 + 2 * 8
+        file.bytes = binaryFile(1, 2, [[0, dataOffset], [0, dataOffset]], entry('a', '1'))
+
+        when:
+        def credentials = BinaryCredentials.read(file)
+
+        then:
+        credentials.get('unknownKey') == null
+        !credentials.containsKey('a')
+    }
+
+    private static byte[] binaryFile(int size, int slots, List<List<Integer>> index, byte[] entryBytes = new byte[0]) {
+        def bytes = new ByteArrayOutputStream()
+        def data = new DataOutputStream(bytes)
+        data.write(BinaryCredentials.MAGIC)
+        data.writeInt(BinaryCredentials.VERSION)
+        data.writeInt(size)
+        data.writeInt(slots)
+        index.each { data.writeInt(it[0]); data.writeInt(it[1]) }
+        data.write(entryBytes)
+        data.flush()
+        bytes.toByteArray()
+    }
+
+    private static byte[] entry(String key, String value) {
+        def bytes = new ByteArrayOutputStream()
+        def data = new DataOutputStream(bytes)
+        data.writeInt(key.length())
+        data.write(key.bytes)
+        data.writeInt(value.length())
+        data.write(value.bytes)
+        data.flush()
+        bytes.toByteArray()
+    }
+
+}
@@ -0,0 +1,156 @@
+package nu.studer.gradle.credentials.domain
+
+import nu.studer.java.util.OrderedProperties
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class CredentialsAgentTest extends Specification {
+
+    @TempDir
+    File tempDir
+
+    char[] passphrase = 'somePassphrase'.toCharArray()
+
+    void "testServesDecryptedCredentialsAndReloadsChangedFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), KeyDerivation::deriveKey)
+        def manager = new CredentialsPersistenceManager(file)
+        manager.updateCredentials { it.setProperty('someKey', encryptor.encrypt('someValue')) }
+        def agent = CredentialsAgent.start(file, passphrase)
+
+        when:
+        def backend = AgentCredentialsBackend.connect(agent.agentFile)
+
+        then:
+        backend.containsKey('someKey')
+        !backend.containsKey('otherKey')
+        backend.get('someKey') == 'someValue'.toCharArray()
+        backend.get('otherKey') == null
+
+        when:
+        manager.updateCredentials { it.setProperty('someKey', encryptor.encrypt('changedValue')) }
+        file.setLastModified(file.lastModified() + 2000)
+
+        then:
+        backend.get('someKey') == 'changedValue'.toCharArray()
+
+        cleanup:
+        agent?.close()
+    }
+
+    void "testRejectsClientsWithoutAccessToken"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def agent = CredentialsAgent.start(file, passphrase)
+        def agentFile = CredentialsAgent.agentFile(file)
+        def forgedAgentFile = new File(tempDir, 'forged.agent')
+        forgedAgentFile.text = agentFile.text.replaceAll(/token=.*/, 'token=' + '00' * 32)
+
+        expect:
+        agent.agentFile == agentFile
+        AgentCredentialsBackend.connect(agentFile) != null
+        AgentCredentialsBackend.connect(forgedAgentFile) == null
+
+        when:
+        agent.close()
+
+        then:
+        !agentFile.exists()
+        AgentCredentialsBackend.connect(agentFile) == null
+    }
+
+    void "testDoesNotSendAccessTokenToOtherProcessListeningOnPortOfStaleAgentFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def agent = CredentialsAgent.start(file, passphrase)
+        def agentFile = CredentialsAgent.agentFile(file)
+        def staleAgentFile = new File(tempDir, 'stale.agent')
+
+        and:
+        def impostor = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+        staleAgentFile.text = agentFile.text.replaceAll(/port=.*/, 'port=' + impostor.localPort)
+        def received = new ByteArrayOutputStream()
+        def impostorThread = Thread.start {
+            impostor.accept().withCloseable { socket ->
+                def challenge = new byte[CredentialsAgent.CHALLENGE_LENGTH]
+                new DataInputStream(socket.inputStream).readFully(challenge)
+                received.write(challenge)
+                socket.outputStream.write(new byte[32])
+                socket.outputStream.flush()
+                socket.soTimeout = 2000
+                try {
+                    int b
+                    while ((b = socket.inputStream.read()) >= 0) {
+                        received.write(b)
+                    }
+                } catch (SocketTimeoutException ignored) {
+                }
+            }
+        }
+
+        when:
+        def backend = AgentCredentialsBackend.connect(staleAgentFile)
+        impostorThread.join()
+
+        then:
+        backend == null
+        received.size() == CredentialsAgent.CHALLENGE_LENGTH
+
+        cleanup:
+        impostor?.close()
+        agent?.close()
+    }
+
+    void "testServesClientsWhileOtherClientStalls"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), KeyDerivation::deriveKey)
+        new CredentialsPersistenceManager(file).updateCredentials { it.setProperty('someKey', encryptor.encrypt('someValue')) }
+        def agent = CredentialsAgent.start(file, passphrase)
+        def properties = new Properties()
+        agent.agentFile.withInputStream { properties.load(it) }
+
+        and:
+        def stalledClient = new Socket(InetAddress.getLoopbackAddress(), properties.getProperty('port') as int)
+
+        when:
+        long start = System.nanoTime()
+        def backend = AgentCredentialsBackend.connect(agent.agentFile)
+        def value = backend.get('someKey')
+        long elapsedMillis = (System.nanoTime() - start).intdiv(1000000)
+
+        then:
+        value == 'someValue'.toCharArray()
+        elapsedMillis < 4000
+
+        cleanup:
+        stalledClient?.close()
+        agent?.close()
+    }
+
+    void "testResolvesBackendsByName"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def fileBackend = new FileCredentialsBackend(CredentialsEncryptor.withPassphrase(passphrase), CredentialsSnapshot.of(new OrderedProperties()))
+        def context = new CredentialsBackend.Context() {
+
+            File getCredentialsFile() { file }
+
+            CredentialsBackend getFileBackend() { fileBackend }
+
+        }
+
+        expect:
+        CredentialsBackends.forName('file').create(context).is(fileBackend)
+        CredentialsBackends.forName('agent').create(context).is(fileBackend)
+
+        when:
+        CredentialsBackends.forName('keychain')
+
+        then:
+        def e = thrown(IllegalArgumentException)
+        e.message == 'Unknown credentials backend: keychain, supported backends: [file, agent]'
+    }
+
+}
@@ -3,6 +3,13 @@ package nu.studer.gradle.credentials.domain
 import nu.studer.java.util.OrderedProperties
 import spock.lang.Specification
 
+import java.nio.ReadOnlyBufferException
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
 @SuppressWarnings("GrUnresolvedAccess")
 class CredentialsContainerTest extends Specification {
 
@@ -19,4 +26,265 @@ class CredentialsContainerTest extends Specification {
         value == null
     }
 
+    void "testDecryptsLazilyAndMemoizesDecryptedValues"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase("somePassphrase".toCharArray())
+        def initialCredentials = new OrderedProperties()
+        initialCredentials.setProperty('someKey', encryptor.encrypt('someValue'))
+        initialCredentials.setProperty('otherKey', encryptor.encrypt('otherValue'))
+        def container = new CredentialsContainer(encryptor, initialCredentials)
+
+        when:
+        def values = (1..3).collect { container.forKey('someKey') }
+
+        then:
+        values == ['someValue'] * 3
+        container.cacheMisses == 1
+        container.cacheHits == 2
+    }
+
+    void "testWipeDiscardsDecryptedValues"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase("somePassphrase".toCharArray())
+        def initialCredentials = new OrderedProperties()
+        initialCredentials.setProperty('someKey', encryptor.encrypt('someValue'))
+        def container = new CredentialsContainer(encryptor, initialCredentials)
+        container.forKey('someKey')
+
+        when:
+        container.wipe()
+        def value = container.forKey('someKey')
+
+        then:
+        value == 'someValue'
+        container.cacheMisses == 2
+        container.cacheHits == 0
+    }
+
+    void "testReloadsOnlyChangedCredentials"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase("somePassphrase".toCharArray())
+        def initialCredentials = new OrderedProperties()
+        initialCredentials.setProperty('someKey', encryptor.encrypt('someValue'))
+        initialCredentials.setProperty('otherKey', encryptor.encrypt('otherValue'))
+        def snapshot = CredentialsSnapshot.of(initialCredentials)
+        def backend = new FileCredentialsBackend(encryptor, { snapshot } as Supplier<CredentialsSnapshot>)
+        def container = new CredentialsContainer(backend, null, new CredentialsStatistics())
+        container.forKey('someKey')
+        container.forKey('otherKey')
+
+        when:
+        def changedCredentials = new OrderedProperties()
+        changedCredentials.setProperty('someKey', initialCredentials.getProperty('someKey'))
+        changedCredentials.setProperty('otherKey', encryptor.encrypt('changedValue'))
+        snapshot = CredentialsSnapshot.of(changedCredentials)
+        def values = [container.forKey('someKey'), container.forKey('otherKey')]
+
+        then:
+        values == ['someValue', 'changedValue']
+        container.cacheMisses == 3
+        container.cacheHits == 1
+
+        when:
+        snapshot = CredentialsSnapshot.of(new OrderedProperties())
+        def value = container.forKey('otherKey')
+
+        then:
+        value == null
+    }
+
+    void "testTreatsCredentialsRemovedByReloadAfterLookupAsAbsent"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase("somePassphrase".toCharArray())
+        def initialCredentials = new OrderedProperties()
+        initialCredentials.setProperty('someKey', encryptor.encrypt('someValue'))
+        def snapshots = []
+        def backend = new FileCredentialsBackend(encryptor, { snapshots.size() > 1 ? snapshots.remove(0) : snapshots[0] } as Supplier<CredentialsSnapshot>)
+        def container = new CredentialsContainer(backend, null, new CredentialsStatistics())
+
+        when:
+        snapshots = [CredentialsSnapshot.of(initialCredentials), CredentialsSnapshot.of(new OrderedProperties())]
+        def value = container.forKey('someKey')
+        snapshots = [CredentialsSnapshot.of(initialCredentials), CredentialsSnapshot.of(new OrderedProperties())]
+        def chars = container.forKeyChars('someKey')
+        snapshots = [CredentialsSnapshot.of(initialCredentials)]
+        def secret = container.secretForKey('someKey')
+        snapshots = [CredentialsSnapshot.of(new OrderedProperties())]
+        secret.apply { it.toString() }
+
+        then:
+        value == null
+        chars == null
+        def e = thrown(IllegalStateException)
+        e.message == 'Credentials with key someKey no longer exist'
+
+        when:
+        snapshots = [CredentialsSnapshot.of(initialCredentials)]
+
+        then:
+        container.forKey('someKey') == 'someValue'
+    }
+
+    void "testAccessesDecryptedCharactersWithoutStrings"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase("somePassphrase".toCharArray())
+        def initialCredentials = new OrderedProperties()
+        initialCredentials.setProperty('someKey', encryptor.encrypt('someValue'.toCharArray()))
+        def container = new CredentialsContainer(encryptor, initialCredentials)
+
+        when:
+        def chars = container.forKeyChars('someKey')
+        Arrays.fill(chars, '*' as char)
+        def secret = container.secretForKey('someKey')
+        def lengths = []
+        secret.use { lengths << it.length() }
+        def value = secret.apply { it.toString() }
+
+        then:
+        lengths == [9]
+        value == 'someValue'
+        container.forKeyChars('someKey') == 'someValue'.toCharArray()
+        container.forKeyChars('unknownKey') == null
+        container.secretForKey('unknownKey') == null
+        container.cacheMisses == 1
+        container.cacheHits == 3
+
+        when:
+        container.wipe()
+        secret.use { it.put('x' as char) }
+
+        then:
+        thrown(ReadOnlyBufferException)
+        container.cacheMisses == 2
+    }
+
+    void "testFallsBackAcrossMountedStoresAndDerivesKeysLazily"() {
+        given:
+        def derived = []
+        def keyDeriver = { String store ->
+            { KeyDerivation keyDerivation, char[] passphrase -> derived << store; keyDerivation.deriveKey(passphrase) } as CredentialsEncryptor.KeyDeriver
+        }
+        def teamEncryptor = CredentialsEncryptor.withPassphrase("teamPassphrase".toCharArray(), KeyDerivation.create(1000), keyDeriver('team'))
+        def sharedEncryptor = CredentialsEncryptor.withPassphrase("sharedPassphrase".toCharArray(), KeyDerivation.create(1000), keyDeriver('shared'))
+        def teamWriter = CredentialsEncryptor.withPassphrase("teamPassphrase".toCharArray(), KeyDerivation.create(1000), KeyDerivation::deriveKey)
+        def sharedWriter = CredentialsEncryptor.withPassphrase("sharedPassphrase".toCharArray(), KeyDerivation.create(1000), KeyDerivation::deriveKey)
+        def teamCredentials = new OrderedProperties()
+        teamCredentials.setProperty('someKey', teamWriter.encrypt('teamValue'))
+        def sharedCredentials = new OrderedProperties()
+        sharedCredentials.setProperty('someKey', sharedWriter.encrypt('sharedValue'))
+        sharedCredentials.setProperty('otherKey', sharedWriter.encrypt('otherValue'))
+        def statistics = new CredentialsStatistics()
+        def container = CredentialsContainer.withStores([
+            team  : new CredentialsContainer(new FileCredentialsBackend(teamEncryptor, CredentialsSnapshot.of(teamCredentials)), null, statistics),
+            shared: new CredentialsContainer(new FileCredentialsBackend(sharedEncryptor, CredentialsSnapshot.of(sharedCredentials)), null, statistics)], null)
+
+        when:
+        def value = container.forKey('someKey')
+
+        then:
+        value == 'teamValue'
+        derived == ['team']
+
+        when:
+        def otherValue = container.forKey('otherKey')
+        def sharedValue = container.forStore('shared').forKey('someKey')
+
+        then:
+        otherValue == 'otherValue'
+        sharedValue == 'sharedValue'
+        container.forKey('unknownKey') == null
+        container.forStore('team').forKey('otherKey') == null
+        derived == ['team', 'shared']
+
+        when:
+        def teamValue = container.forStore('team').forKey('someKey')
+
+        then:
+        teamValue == 'teamValue'
+        container.forStore('team').cacheHits == 1
+        container.cacheMisses == 3
+        container.cacheHits == 1
+
+        when:
+        container.forStore('unknown')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    void "testDecryptsOtherKeysWhileDecryptionOfKeyIsPending"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase("somePassphrase".toCharArray())
+        def initialCredentials = new OrderedProperties()
+        initialCredentials.setProperty('Aa', encryptor.encrypt('slowValue'))
+        initialCredentials.setProperty('BB', encryptor.encrypt('fastValue'))
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def backend = new FileCredentialsBackend(encryptor, CredentialsSnapshot.of(initialCredentials))
+        def blockingBackend = [
+            containsKey: { String key -> backend.containsKey(key) },
+            get        : { String key -> if (key == 'Aa') { started.countDown(); release.await() }; backend.get(key) }
+        ] as CredentialsBackend
+        def executor = Executors.newFixedThreadPool(2)
+        def container = new CredentialsContainer(blockingBackend, null, new CredentialsStatistics())
+
+        when:
+        def slowValue = executor.submit({ container.forKey('Aa') } as Callable<String>)
+        started.await()
+        def fastValue = executor.submit({ container.forKey('BB') } as Callable<String>)
+
+        then:
+        'Aa'.hashCode() == 'BB'.hashCode()
+        fastValue.get(10, TimeUnit.SECONDS) == 'fastValue'
+        !slowValue.done
+
+        when:
+        release.countDown()
+
+        then:
+        slowValue.get(10, TimeUnit.SECONDS) == 'slowValue'
+
+        cleanup:
+        release.countDown()
+        executor.shutdownNow()
+    }
+
+    void "testPrefetchesCredentialsInBackgroundAndBlocksUntilDecrypted"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase("somePassphrase".toCharArray())
+        def initialCredentials = new OrderedProperties()
+        initialCredentials.setProperty('someKey', encryptor.encrypt('someValue'))
+        initialCredentials.setProperty('otherKey', encryptor.encrypt('otherValue'))
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def backend = new FileCredentialsBackend(encryptor, CredentialsSnapshot.of(initialCredentials))
+        def blockingBackend = [
+            containsKey: { String key -> backend.containsKey(key) },
+            get        : { String key -> started.countDown(); release.await(); backend.get(key) }
+        ] as CredentialsBackend
+        def executor = Executors.newSingleThreadExecutor()
+        def container = new CredentialsContainer(blockingBackend, null, new CredentialsStatistics(), executor)
+
+        when:
+        container.prefetch('someKey', 'unknownKey')
+        started.await()
+        def value = executor.submit({ container.forKey('someKey') } as Callable<String>)
+        def access = Executors.newSingleThreadExecutor().submit({ container.forKey('someKey') } as Callable<String>)
+        Thread.sleep(100)
+
+        then:
+        !access.done
+
+        when:
+        release.countDown()
+
+        then:
+        access.get(10, TimeUnit.SECONDS) == 'someValue'
+        value.get(10, TimeUnit.SECONDS) == 'someValue'
+        container.cacheMisses == 1
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
 }
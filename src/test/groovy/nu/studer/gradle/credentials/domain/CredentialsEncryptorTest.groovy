@@ -0,0 +1,122 @@
+package nu.studer.gradle.credentials.domain
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+class CredentialsEncryptorTest extends Specification {
+
+    char[] passphrase = 'My very secret pass phrase'.toCharArray()
+
+    List<KeyDerivation> derivations = []
+
+    CredentialsEncryptor.KeyDeriver keyDeriver = { KeyDerivation keyDerivation, char[] p ->
+        derivations << keyDerivation
+        keyDerivation.deriveKey(p)
+    } as CredentialsEncryptor.KeyDeriver
+
+    void "testEncryptsWithVersionedHeaderAndRandomNonce"() {
+        given:
+        def keyDerivation = KeyDerivation.create(1000)
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, keyDerivation, keyDeriver)
+
+        when:
+        def encrypted = encryptor.encrypt('someValue')
+        def otherEncrypted = encryptor.encrypt('someValue')
+
+        then:
+        encrypted.startsWith(AuthenticatedEncryption.PREFIX)
+        encrypted != otherEncrypted
+        AuthenticatedEncryption.keyDerivationOf(encrypted) == keyDerivation
+        encryptor.isCurrent(encrypted)
+
+        and:
+        CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), keyDeriver).decrypt(encrypted) == 'someValue'
+        encryptor.decrypt(otherEncrypted) == 'someValue'
+        derivations == [keyDerivation, keyDerivation]
+    }
+
+    void "testDecryptsCredentialsEncryptedInLegacyFormat"() {
+        given:
+        def legacyEncrypted = Encryption.createEncryption(passphrase).encrypt('someValue')
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), keyDeriver)
+
+        when:
+        def decrypted = encryptor.decrypt(legacyEncrypted)
+        def reencrypted = encryptor.reencrypt(legacyEncrypted)
+
+        then:
+        decrypted == 'someValue'
+        !encryptor.isCurrent(legacyEncrypted)
+        encryptor.isCurrent(reencrypted)
+        encryptor.decrypt(reencrypted) == 'someValue'
+    }
+
+    void "testDetectsTamperedCredentials"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), keyDeriver)
+        def encrypted = encryptor.encrypt('someValue')
+        def bytes = Base64.decoder.decode(encrypted.substring(AuthenticatedEncryption.PREFIX.length()))
+        bytes[bytes.length - 1] ^= 1
+
+        when:
+        encryptor.decrypt(AuthenticatedEncryption.PREFIX + Base64.encoder.encodeToString(bytes))
+
+        then:
+        thrown(RuntimeException)
+    }
+
+    void "testEncryptsWithKeyDerivationOfExistingCredentials"() {
+        given:
+        def storeKeyDerivation = KeyDerivation.create(1000)
+        def existing = CredentialsEncryptor.withPassphrase(passphrase, storeKeyDerivation, keyDeriver).encrypt('someValue')
+        def legacy = Encryption.createEncryption(passphrase).encrypt('otherValue')
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), keyDeriver)
+
+        when:
+        def storeEncryptor = encryptor.forCredentials([legacy, existing])
+        def encrypted = storeEncryptor.encrypt('newValue')
+
+        then:
+        storeEncryptor.keyDerivation == storeKeyDerivation
+        storeEncryptor.isCurrent(existing)
+        AuthenticatedEncryption.keyDerivationOf(encrypted) == storeKeyDerivation
+        encryptor.forCredentials([legacy]).is(encryptor)
+    }
+
+    void "testEncryptsAndDecryptsCharactersAndBuffers"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), keyDeriver)
+        def legacyEncrypted = Encryption.createEncryption(passphrase).encrypt('l\u00e9gacy')
+        def buffer = ByteBuffer.allocate(64)
+
+        when:
+        def fromChars = encryptor.encrypt('s\u00e9cret'.toCharArray())
+        def fromBytes = encryptor.encrypt(ByteBuffer.wrap('other'.getBytes(StandardCharsets.UTF_8)))
+        def length = encryptor.decrypt(fromBytes, buffer)
+
+        then:
+        encryptor.decryptToChars(fromChars) == 's\u00e9cret'.toCharArray()
+        encryptor.decrypt(fromChars) == 's\u00e9cret'
+        encryptor.decryptToChars(legacyEncrypted) == 'l\u00e9gacy'.toCharArray()
+        length == 5
+        new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8) == 'other'
+        encryptor.encrypt((char[]) null) == null
+        encryptor.decryptToChars(null) == null
+    }
+
+    void "testComparesDecryptedValuesOfEncryptedCredentials"() {
+        given:
+        def encryptor = CredentialsEncryptor.withPassphrase(passphrase, KeyDerivation.create(1000), keyDeriver)
+        def legacyEncrypted = Encryption.createEncryption(passphrase).encrypt('someValue')
+
+        expect:
+        encryptor.isSameValue(encryptor.encrypt('someValue'), encryptor.encrypt('someValue'))
+        encryptor.isSameValue(encryptor.encrypt('someValue'), legacyEncrypted)
+        !encryptor.isSameValue(encryptor.encrypt('someValue'), encryptor.encrypt('otherValue'))
+        !encryptor.isSameValue(encryptor.encrypt('someValue'), 'v2:tampered')
+        !encryptor.isSameValue(encryptor.encrypt('someValue'), null)
+    }
+
+}
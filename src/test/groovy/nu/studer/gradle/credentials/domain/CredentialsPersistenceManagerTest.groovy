@@ -0,0 +1,231 @@
+package nu.studer.gradle.credentials.domain
+
+import spock.lang.Requires
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.FileSystems
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.function.UnaryOperator
+
+class CredentialsPersistenceManagerTest extends Specification {
+
+    @TempDir
+    File tempDir
+
+    void "testStoreReplacesFileWithoutLeavingTemporaryFiles"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def manager = new CredentialsPersistenceManager(file)
+
+        when:
+        manager.updateCredentials { it.setProperty('someKey', 'someValue') }
+        manager.updateCredentials { it.setProperty('otherKey', 'otherValue') }
+
+        then:
+        manager.readCredentials().getProperty('someKey') == 'someValue'
+        manager.readCredentials().getProperty('otherKey') == 'otherValue'
+        tempDir.list().toList().sort() == ['gradle.encrypted.properties', 'gradle.encrypted.properties.lock']
+    }
+
+    @Requires({ FileSystems.default.supportedFileAttributeViews().contains('posix') })
+    void "testRestrictsNewFilesToOwnerAndKeepsPermissionsOfReplacedFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def journalFile = new File(tempDir, 'gradle.encrypted.properties.journal')
+        def manager = new CredentialsPersistenceManager(file)
+
+        when:
+        manager.updateCredentials(['someKey': 'someValue'])
+
+        then:
+        permissionsOf(file) == 'rw-------'
+
+        when:
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString('rw-r-----'))
+        manager.updateCredentials(['otherKey': 'otherValue'])
+        new CredentialsPersistenceManager(file, 1024).updateCredentials(['thirdKey': 'thirdValue'])
+
+        then:
+        permissionsOf(file) == 'rw-r-----'
+        permissionsOf(journalFile) == 'rw-r-----'
+        manager.readCredentials().size() == 3
+    }
+
+    void "testConcurrentUpdatesFromMultipleThreadsAreNotLost"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def threads = 8
+        def updatesPerThread = 25
+        def executor = Executors.newFixedThreadPool(threads)
+
+        when:
+        def futures = (1..threads).collect { thread ->
+            executor.submit({
+                updatesPerThread.times { update ->
+                    new CredentialsPersistenceManager(file).updateCredentials { it.setProperty("key-$thread-$update".toString(), 'value') }
+                }
+            } as Callable<Void>)
+        }
+        futures.each { it.get() }
+
+        then:
+        new CredentialsPersistenceManager(file).readCredentials().size() == threads * updatesPerThread
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    void "testFailsToRotateCredentialsFileToItself"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        new CredentialsPersistenceManager(file).updateCredentials { it.setProperty('someKey', 'someValue') }
+
+        when:
+        new CredentialsPersistenceManager(file).rotateCredentials(new CredentialsPersistenceManager(new File(tempDir, './gradle.encrypted.properties')), UnaryOperator.identity())
+
+        then:
+        def e = thrown(IllegalArgumentException)
+        e.message == "Credentials file cannot be rotated to itself: ${file.canonicalPath}"
+        new CredentialsPersistenceManager(file).readCredentials().getProperty('someKey') == 'someValue'
+    }
+
+    void "testFailsToRotateCredentialsFileWhenRetiredFileOfPreviousRotationExists"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def otherFile = new File(tempDir, 'other.encrypted.properties')
+        def retiredFile = new File(tempDir, 'gradle.encrypted.properties.retired')
+        new CredentialsPersistenceManager(file).updateCredentials { it.setProperty('someKey', 'someValue') }
+        retiredFile.text = 'someKey=previousValue'
+
+        when:
+        new CredentialsPersistenceManager(file).rotateCredentials(new CredentialsPersistenceManager(otherFile), UnaryOperator.identity())
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message == "Retired credentials file of a previous rotation already exists: ${retiredFile.absolutePath}"
+        retiredFile.text == 'someKey=previousValue'
+        !otherFile.exists()
+        new CredentialsPersistenceManager(file).readCredentials().getProperty('someKey') == 'someValue'
+    }
+
+    void "testConcurrentUpdatesFromMultipleProcessesAreNotLost"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def processes = 4
+        def updatesPerProcess = 25
+        def java = new File(System.getProperty('java.home'), 'bin/java').absolutePath
+        def classpath = System.getProperty('java.class.path')
+
+        when:
+        def started = (1..processes).collect { process ->
+            new ProcessBuilder(java, '-cp', classpath, CredentialsUpdater.name, file.absolutePath, "process-$process".toString(), updatesPerProcess.toString())
+                .redirectErrorStream(true)
+                .start()
+        }
+        def exitValues = started.collect { it.inputStream.text; it.waitFor() }
+
+        then:
+        exitValues.every { it == 0 }
+        new CredentialsPersistenceManager(file).readCredentials().size() == processes * updatesPerProcess
+    }
+
+    void "testAppendsChangesToJournalAndCompactsAboveThreshold"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def journalFile = new File(tempDir, 'gradle.encrypted.properties.journal')
+        def manager = new CredentialsPersistenceManager(file, 200)
+        manager.updateCredentials(['someKey': 'someValue', 'otherKey': 'otherValue'])
+        def snapshot = manager.readSnapshot()
+
+        when:
+        manager.updateCredentials(['someKey': 'changedValue', 'otherKey': null])
+
+        then:
+        !file.exists()
+        journalFile.exists()
+        !snapshot.isUpToDate(file)
+        manager.readCredentials().stringPropertyNames().toList() == ['someKey']
+        manager.readSnapshot().get('someKey') == 'changedValue'
+
+        when:
+        10.times { manager.updateCredentials([("key$it".toString()): 'value']) }
+
+        then:
+        file.exists()
+        journalFile.length() < 200
+        manager.readCredentials().size() == 11
+        manager.readCredentials().getProperty('someKey') == 'changedValue'
+
+        when:
+        manager.compactCredentials()
+
+        then:
+        !journalFile.exists()
+        new CredentialsPersistenceManager(file).readCredentials().size() == 11
+    }
+
+    void "testIgnoresTruncatedRecordAtEndOfJournal"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def journalFile = new File(tempDir, 'gradle.encrypted.properties.journal')
+        def manager = new CredentialsPersistenceManager(file, 1024)
+        manager.updateCredentials(['someKey': 'someValue'])
+        def length = journalFile.length()
+        manager.updateCredentials(['otherKey': 'otherValue'])
+
+        when:
+        new RandomAccessFile(journalFile, 'rw').withCloseable { it.setLength(journalFile.length() - 3) }
+
+        then:
+        journalFile.length() > length
+        manager.readCredentials().stringPropertyNames().toList() == ['someKey']
+    }
+
+    void "testAppendsAfterLastValidRecordOfJournal"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def journalFile = new File(tempDir, 'gradle.encrypted.properties.journal')
+        def manager = new CredentialsPersistenceManager(file, 1024)
+        manager.updateCredentials(['someKey': 'someValue'])
+        manager.updateCredentials(['otherKey': 'otherValue'])
+        new RandomAccessFile(journalFile, 'rw').withCloseable { it.setLength(journalFile.length() - 3) }
+
+        when:
+        manager.updateCredentials(['thirdKey': 'thirdValue'])
+
+        then:
+        manager.readCredentials().stringPropertyNames().toList() == ['someKey', 'thirdKey']
+
+        when:
+        journalFile << ([0, 0, 0, 42, 1, 2, 3] as byte[])
+        manager.updateCredentials(['fourthKey': 'fourthValue'])
+        manager.compactCredentials()
+
+        then:
+        !journalFile.exists()
+        new CredentialsPersistenceManager(file).readCredentials().stringPropertyNames().toList() == ['someKey', 'thirdKey', 'fourthKey']
+    }
+
+    private static String permissionsOf(File file) {
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath()))
+    }
+
+    /**
+     * Adds the given number of credentials with the given key prefix to the given credentials file, one update at a time.
+     */
+    static final class CredentialsUpdater {
+
+        static void main(String[] args) {
+            def manager = new CredentialsPersistenceManager(new File(args[0]))
+            Integer.parseInt(args[2]).times { update ->
+                manager.updateCredentials { it.setProperty("${args[1]}-$update".toString(), 'value') }
+            }
+        }
+
+    }
+
+}
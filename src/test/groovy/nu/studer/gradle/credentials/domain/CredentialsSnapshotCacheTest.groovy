@@ -0,0 +1,85 @@
+package nu.studer.gradle.credentials.domain
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+class CredentialsSnapshotCacheTest extends Specification {
+
+    @TempDir
+    File tempDir
+
+    void "testReusesSnapshotOfUnchangedFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        file.text = 'someKey=someValue\n'
+        def statistics = new CredentialsStatistics()
+        def cache = new CredentialsSnapshotCache(statistics)
+
+        when:
+        def snapshot = cache.get(new CredentialsPersistenceManager(file))
+        def otherSnapshot = cache.get(new CredentialsPersistenceManager(new File(tempDir, '../' + tempDir.name + '/gradle.encrypted.properties')))
+
+        then:
+        snapshot.get('someKey') == 'someValue'
+        otherSnapshot.is(snapshot)
+        statistics.fileReads == 1
+        statistics.bytesRead == file.length()
+        statistics.snapshotReuses == 1
+    }
+
+    void "testReadsFileAgainWhenChanged"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        file.text = 'someKey=someValue\n'
+        def cache = new CredentialsSnapshotCache()
+        def snapshot = cache.get(new CredentialsPersistenceManager(file))
+
+        when:
+        file.text = 'someKey=otherValue\notherKey=otherValue\n'
+        def otherSnapshot = cache.get(new CredentialsPersistenceManager(file))
+
+        then:
+        !otherSnapshot.is(snapshot)
+        otherSnapshot.get('someKey') == 'otherValue'
+        otherSnapshot.size() == 2
+    }
+
+    void "testReadsFileAgainWhenReplacedByFileOfSameSizeAndLastModifiedTime"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        file.text = 'someKey=someValue\n'
+        def cache = new CredentialsSnapshotCache()
+        def snapshot = cache.get(new CredentialsPersistenceManager(file))
+
+        when:
+        def replacement = new File(tempDir, 'gradle.encrypted.properties.tmp')
+        replacement.text = 'someKey=otherVal1\n'
+        replacement.setLastModified(file.lastModified())
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        def otherSnapshot = cache.get(new CredentialsPersistenceManager(file))
+
+        then:
+        file.length() == 'someKey=someValue\n'.length()
+        !otherSnapshot.is(snapshot)
+        otherSnapshot.get('someKey') == 'otherVal1'
+    }
+
+    void "testReadsFileOnceCreated"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def cache = new CredentialsSnapshotCache()
+        def snapshot = cache.get(new CredentialsPersistenceManager(file))
+
+        when:
+        file.text = 'someKey=someValue\n'
+        def otherSnapshot = cache.get(new CredentialsPersistenceManager(file))
+
+        then:
+        snapshot.size() == 0
+        otherSnapshot.get('someKey') == 'someValue'
+    }
+
+}
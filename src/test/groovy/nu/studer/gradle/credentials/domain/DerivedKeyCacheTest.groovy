@@ -0,0 +1,81 @@
+package nu.studer.gradle.credentials.domain
+
+import spock.lang.Specification
+
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.function.LongSupplier
+
+class DerivedKeyCacheTest extends Specification {
+
+    long now = 0
+
+    List<Runnable> evictions = []
+
+    DerivedKeyCache cache = new DerivedKeyCache({ now } as LongSupplier, Stub(ScheduledExecutorService) {
+        schedule(_ as Runnable, _, TimeUnit.NANOSECONDS) >> { Runnable eviction, long delay, TimeUnit unit -> evictions << eviction; null }
+    })
+
+    void "testReusesKeyUntilExpired"() {
+        given:
+        def derivations = 0
+        def derivation = { derivations++; [1, 2, 3] as byte[] }
+        def ttl = TimeUnit.MINUTES.toNanos(10)
+
+        when:
+        def key = cache.getOrDerive('someId', ttl, derivation)
+        now += TimeUnit.MINUTES.toNanos(9)
+        def otherKey = cache.getOrDerive('someId', ttl, derivation)
+
+        then:
+        key == [1, 2, 3] as byte[]
+        otherKey == key
+        !otherKey.is(key)
+        derivations == 1
+
+        when:
+        now += TimeUnit.MINUTES.toNanos(1)
+        cache.getOrDerive('someId', ttl, derivation)
+
+        then:
+        derivations == 2
+    }
+
+    void "testEvictsAndWipesExpiredKeys"() {
+        given:
+        def key = [1, 2, 3] as byte[]
+        cache.getOrDerive('someId', 10, { key })
+
+        when:
+        now += 10
+        cache.getOrDerive('otherId', 10, { [4, 5, 6] as byte[] })
+
+        then:
+        cache.size() == 1
+        key == [0, 0, 0] as byte[]
+    }
+
+    void "testEvictsAndWipesExpiredKeysWithoutLookup"() {
+        given:
+        def key = [1, 2, 3] as byte[]
+        cache.getOrDerive('someId', 10, { key })
+
+        when:
+        now += 10
+        evictions*.run()
+
+        then:
+        evictions.size() == 1
+        cache.size() == 0
+        key == [0, 0, 0] as byte[]
+    }
+
+    void "testKeyDerivationIdDependsOnPassphrase"() {
+        expect:
+        KeyDerivation.LEGACY.id('abc'.toCharArray()) == KeyDerivation.LEGACY.id('abc'.toCharArray())
+        KeyDerivation.LEGACY.id('abc'.toCharArray()) != KeyDerivation.LEGACY.id('abd'.toCharArray())
+        !KeyDerivation.LEGACY.id('abc'.toCharArray()).contains('abc')
+        KeyDerivation.create(1000).id('abc'.toCharArray()) != KeyDerivation.create(1000).id('abc'.toCharArray())
+    }
+
+}
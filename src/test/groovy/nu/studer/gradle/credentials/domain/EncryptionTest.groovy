@@ -2,6 +2,9 @@ package nu.studer.gradle.credentials.domain
 
 import spock.lang.Specification
 
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
 class EncryptionTest extends Specification {
 
     void "encryptDecryptAcrossDifferentEncryptionInstances"() {
@@ -20,4 +23,39 @@ class EncryptionTest extends Specification {
         textToEncrypt == decrypted
     }
 
+    void "encryptDecryptConcurrentlyWithSameEncryptionInstance"() {
+        given:
+        Encryption encryption = Encryption.createEncryption("My very secret pass phrase".toCharArray())
+        List<String> texts = (1..200).collect { "Some text #$it that needs to be encrypted.".toString() }
+        Map<String, String> expected = texts.collectEntries { [(it): encryption.encrypt(it)] }
+
+        and:
+        def threads = Runtime.runtime.availableProcessors() * 2
+        def executor = Executors.newFixedThreadPool(threads)
+
+        when:
+        def futures = (1..threads).collect {
+            executor.submit({
+                def mismatches = []
+                50.times {
+                    texts.each { text ->
+                        String encrypted = encryption.encrypt(text)
+                        String decrypted = encryption.decrypt(encrypted)
+                        if (encrypted != expected[text] || decrypted != text) {
+                            mismatches << text
+                        }
+                    }
+                }
+                mismatches
+            } as Callable<List<String>>)
+        }
+        def failures = futures.collectMany { it.get() }
+
+        then:
+        failures.empty
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
 }
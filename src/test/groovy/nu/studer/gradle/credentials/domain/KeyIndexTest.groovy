@@ -0,0 +1,49 @@
+package nu.studer.gradle.credentials.domain
+
+import spock.lang.Specification
+
+class KeyIndexTest extends Specification {
+
+    void "testLooksUpKeysAddedInOrder"() {
+        given:
+        def index = new KeyIndex()
+        def keys = (1..1000).collect { "someKey$it".toString() }
+
+        when:
+        def positions = keys.collect { index.add(it) }
+        def duplicatePosition = index.add('someKey500')
+        index.trim()
+
+        then:
+        positions == (0..999).toList()
+        duplicatePosition == 499
+        index.size() == 1000
+        keys.every { index.indexOf(it) == positions[keys.indexOf(it)] }
+        index.keyAt(999).is(keys[999])
+        index.indexOf('unknownKey') == -1
+        index.indexOf(null) == -1
+        index.keys().toList() == keys
+        index.keys().contains('someKey1')
+        !index.keys().contains('someKey0')
+    }
+
+    void "testLooksUpKeysWithCollidingHashes"() {
+        given:
+        def index = new KeyIndex()
+
+        when:
+        // 'Aa' and 'BB' have the same hash code
+        index.add('Aa')
+        index.add('BB')
+        index.add('AaBB')
+        index.add('BBAa')
+
+        then:
+        index.indexOf('Aa') == 0
+        index.indexOf('BB') == 1
+        index.indexOf('AaBB') == 2
+        index.indexOf('BBAa') == 3
+        index.indexOf('AaAa') == -1
+    }
+
+}
@@ -0,0 +1,79 @@
+package nu.studer.gradle.credentials.domain
+
+import nu.studer.java.util.OrderedProperties
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class PropertiesCredentialsTest extends Specification {
+
+    @TempDir
+    File tempDir
+
+    void "testLooksUpSingleCredentialsInPropertiesFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def credentials = new OrderedProperties()
+        (1..1000).each { credentials.setProperty("someKey$it".toString(), "someValue$it".toString()) }
+        credentials.setProperty('kéy', 'välue')
+        credentials.setProperty('key with=separators:', 'value\twith\nescapes\\')
+        new CredentialsPersistenceManager(file).storeCredentials(credentials, CredentialsFormat.PROPERTIES)
+
+        when:
+        def snapshot = new CredentialsPersistenceManager(file).readSnapshot()
+
+        then:
+        snapshot.size() == 1002
+        snapshot.get('someKey1') == 'someValue1'
+        snapshot.get('someKey1000') == 'someValue1000'
+        snapshot.get('kéy') == 'välue'
+        snapshot.get('key with=separators:') == 'value\twith\nescapes\\'
+        snapshot.get('unknownKey') == null
+        !snapshot.containsKey('someKey0')
+    }
+
+    void "testParsesPropertiesFileLikeJavaProperties"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        file.bytes = ('# comment\n' +
+            '! other comment\n' +
+            '\n' +
+            '   a = 1\n' +
+            'b:2\r\n' +
+            'c 3\r' +
+            'd=continued \\\n' +
+            '    line\n' +
+            'e=\\u0041\\\\\n' +
+            'f\n' +
+            'a=overridden\n' +
+            'g=trailing\\').getBytes('ISO-8859-1')
+        def expected = new Properties()
+        file.withInputStream { expected.load(it) }
+
+        when:
+        def credentials = PropertiesCredentials.read(file)
+
+        then:
+        credentials == expected
+        credentials.keySet().toList() == ['a', 'b', 'c', 'd', 'e', 'f', 'g']
+    }
+
+    void "testLooksUpSingleCredentialsInLargePropertiesFile"() {
+        given:
+        def file = new File(tempDir, 'gradle.encrypted.properties')
+        def credentials = new OrderedProperties()
+        (1..20000).each { credentials.setProperty("someKey$it".toString(), "someValue$it".padRight(64, '-')) }
+        new CredentialsPersistenceManager(file).storeCredentials(credentials, CredentialsFormat.PROPERTIES)
+
+        when:
+        def snapshot = PropertiesCredentials.read(file)
+
+        then:
+        file.length() > FileBuffers.MAX_HEAP_SIZE
+        snapshot.size() == 20000
+        snapshot.get('someKey1') == 'someValue1'.padRight(64, '-')
+        snapshot.get('someKey20000') == 'someValue20000'.padRight(64, '-')
+        snapshot.get('unknownKey') == null
+        snapshot.keySet().first() == 'someKey1'
+    }
+
+}
@@ -16,6 +16,46 @@ class Base64Test extends Specification {
         decoded == textToEncode
     }
 
+    void "encodeDecodeCompatibleWithJdk"() {
+        given:
+        def random = new Random(42)
+
+        expect:
+        (0..64).every { length ->
+            byte[] bytes = new byte[length]
+            random.nextBytes(bytes)
+            String encoded = Base64.encodeBase64(bytes)
+            encoded == java.util.Base64.encoder.encodeToString(bytes) && Base64.decodeBase64(encoded) == bytes
+        }
+    }
+
+    void "decodeLeniently"() {
+        given:
+        byte[] bytes = (0..47).collect { (byte) (it * 5) } as byte[]
+        String encoded = java.util.Base64.encoder.encodeToString(bytes)
+
+        expect:
+        Base64.decodeBase64(encoded.replaceAll(/(.{16})/, '$1\r\n')) == bytes
+        Base64.decodeBase64(java.util.Base64.urlEncoder.encodeToString(bytes)) == bytes
+        Base64.decodeBase64(java.util.Base64.encoder.withoutPadding().encodeToString([1, 2] as byte[])) == [1, 2] as byte[]
+    }
+
+    void "encodeDecodeIntoBuffers"() {
+        given:
+        byte[] bytes = "Some text".getBytes("UTF-8")
+        char[] chars = new char[2 + Base64.encodedLength(bytes.length)]
+        byte[] decoded = new byte[bytes.length + 1]
+
+        when:
+        int encodedLength = Base64.encodeBase64(bytes, 0, bytes.length, chars, 2)
+        int decodedLength = Base64.decodeBase64(new String(chars), 2, chars.length, decoded, 1)
+
+        then:
+        encodedLength == Base64.encodedLength(bytes.length)
+        decodedLength == bytes.length
+        decoded[1..-1] == bytes.toList()
+    }
+
     void "printHexBinary"() {
         given:
         byte[] bytes = [-128, -1, 0, 9, 10, 11, 17, 127]